@@ -0,0 +1,94 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import net.hydromatic.linq4j.Enumerator;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks a filtered sum over a materialized table, a row at a time
+ * versus a batch at a time. Scores are rows per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BatchBenchmark {
+    private static final int ROWS = 100000;
+
+    private WebColumnStore store;
+    private final int[] fields = {0};
+    private WebFilter[] filters;
+
+    @Setup
+    public void setUp() throws Exception {
+        String url = HtmlGenerator.write(ROWS, HtmlGenerator.TYPES.length, "plain");
+        WebReader reader = new WebReader(url);
+
+        // C2 holds ints
+        Map<String, Object> fieldConfig = new HashMap<String, Object>();
+        fieldConfig.put("th", "C2");
+        fieldConfig.put("type", "int");
+        ArrayList<Map<String, Object>> fieldConfigs =
+            new ArrayList<Map<String, Object>>();
+        fieldConfigs.add(fieldConfig);
+        WebRowConverter converter = new WebRowConverter(reader, fieldConfigs);
+
+        this.store = WebColumnStore.build(reader.currentPage(), reader, converter);
+        this.filters = new WebFilter[] {
+            new WebFilter(0, WebFilter.Op.GREATER_THAN,
+                new Object[] {BigDecimal.ZERO})};
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public double rows() {
+        double sum = 0;
+        Enumerator<Object> rows = this.store.enumerator(this.fields, this.filters);
+        while (rows.moveNext()) {
+            Object value = ((Object[]) rows.current())[0];
+            if (value != null) {
+                sum += ((Number) value).doubleValue();
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public double batches() {
+        double sum = 0;
+        Enumerator<WebBatch> batches = this.store.batches(this.fields,
+            this.filters, WebBatch.DEFAULT_SIZE);
+        while (batches.moveNext()) {
+            sum += batches.current().sum(0);
+        }
+        return sum;
+    }
+}
+
+// End BatchBenchmark.java
@@ -0,0 +1,93 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import org.jsoup.select.Elements;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks extraction and conversion of single cells, for each field type.
+ * Scores are cells per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ConvertBenchmark {
+    private static final int ROWS = 1000;
+
+    @Param({"String", "boolean", "int", "long", "double", "Date", "Timestamp" })
+    String type;
+
+    @Param({"plain", "markup" })
+    String complexity;
+
+    private WebRowConverter converter;
+    private int field;
+    private final List<Elements> rows = new ArrayList<Elements>();
+
+    @Setup
+    public void setUp() throws Exception {
+        String url = HtmlGenerator.write(ROWS, HtmlGenerator.TYPES.length,
+            this.complexity);
+        WebReader reader = new WebReader(url);
+
+        // declare the column holding values of the benchmarked type
+        String th = null;
+        for (int i = 0; i < HtmlGenerator.TYPES.length; i++) {
+            if (HtmlGenerator.TYPES[i].equals(this.type)) {
+                th = "C" + i;
+            }
+        }
+        Map<String, Object> fieldConfig = new HashMap<String, Object>();
+        fieldConfig.put("th", th);
+        fieldConfig.put("type", this.type);
+        if (this.complexity.equals("markup")) {
+            fieldConfig.put("selector", "span.v");
+        }
+        ArrayList<Map<String, Object>> fieldConfigs =
+            new ArrayList<Map<String, Object>>();
+        fieldConfigs.add(fieldConfig);
+
+        this.converter = new WebRowConverter(reader, fieldConfigs);
+        this.field = this.converter.fieldIndex(th);
+        for (Elements row : reader) {
+            this.rows.add(row);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void convert(Blackhole blackhole) {
+        for (Elements row : this.rows) {
+            blackhole.consume(this.converter.convertField(row, this.field));
+        }
+    }
+}
+
+// End ConvertBenchmark.java
@@ -0,0 +1,137 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.util.Random;
+
+/**
+ * Writes synthetic HTML pages for the benchmarks.
+ *
+ * <p>A page holds a few small "noise" tables (navigation, infobox) followed
+ * by the data table, so that best-table location has work to do. Column
+ * <code>i</code> of the data table is headed <code>C<i>i</i></code> and holds
+ * values of the type {@link #TYPES}<code>[i % TYPES.length]</code>.
+ * Complexity controls the markup inside each cell:</p>
+ *
+ * <ul>
+ * <li><code>plain</code> - the value alone;</li>
+ * <li><code>markup</code> - the value in <code>&lt;a&gt;&lt;span
+ *     class="v"&gt;</code>, followed by a footnote reference.</li>
+ * </ul>
+ */
+class HtmlGenerator {
+    /** Model type names of the generated columns, in column order. */
+    static final String[] TYPES = {
+        "String", "boolean", "int", "long", "double", "Date", "Timestamp"
+    };
+
+    private static final String[] MONTHS = {
+        "January", "February", "March", "April", "May", "June", "July",
+        "August", "September", "October", "November", "December"
+    };
+
+    private HtmlGenerator() {
+    }
+
+    /** Writes a page to a temporary file, and returns its file: URL. */
+    static String write(int rows, int cols, String complexity) throws IOException {
+        File file = File.createTempFile("optiq-web-bench-" + rows + "x" + cols
+            + "-" + complexity + "-", ".html");
+        file.deleteOnExit();
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write(page(rows, cols, complexity));
+        } finally {
+            out.close();
+        }
+        return file.toURI().toString();
+    }
+
+    /** Returns the HTML of a page. */
+    static String page(int rows, int cols, String complexity) {
+        boolean markup = complexity.equals("markup");
+        Random random = new Random(rows * 31 + cols);
+        StringBuilder buf = new StringBuilder(rows * cols * (markup ? 80 : 20));
+        buf.append("<html><head><title>Benchmark</title></head><body>\n");
+
+        // noise
+        buf.append("<table class=\"nav\"><tr><td><a href=\"/\">Home</a></td>"
+            + "<td><a href=\"/about\">About</a></td></tr></table>\n");
+        buf.append("<table class=\"infobox\">");
+        for (int i = 0; i < 5; i++) {
+            buf.append("<tr><th>Fact ").append(i).append("</th><td>")
+                .append(random.nextInt(1000)).append("</td></tr>");
+        }
+        buf.append("</table>\n");
+
+        // data
+        buf.append("<table class=\"data\"><thead><tr>");
+        for (int c = 0; c < cols; c++) {
+            buf.append("<th>C").append(c).append("</th>");
+        }
+        buf.append("</tr></thead><tbody>\n");
+        for (int r = 0; r < rows; r++) {
+            buf.append("<tr>");
+            for (int c = 0; c < cols; c++) {
+                String value = value(TYPES[c % TYPES.length], r, random);
+                buf.append("<td>");
+                if (markup) {
+                    buf.append("<a href=\"#r").append(r).append("\"><span class=\"v\">")
+                        .append(value).append("</span></a><sup>[")
+                        .append(c + 1).append("]</sup>");
+                } else {
+                    buf.append(value);
+                }
+                buf.append("</td>");
+            }
+            buf.append("</tr>\n");
+        }
+        buf.append("</tbody></table>\n</body></html>\n");
+        return buf.toString();
+    }
+
+    // a cell value of a given type, formatted the way web pages do
+    private static String value(String type, int row, Random random) {
+        if (type.equals("boolean")) {
+            return String.valueOf(random.nextBoolean());
+        } else if (type.equals("int")) {
+            return String.format("%,d", random.nextInt(10000000));
+        } else if (type.equals("long")) {
+            return String.format("%,d", (long) random.nextInt() * 1000L);
+        } else if (type.equals("double")) {
+            return String.format("%,.2f", random.nextDouble() * 100000);
+        } else if (type.equals("Date")) {
+            return String.format("%d-%02d-%02d", 1900 + random.nextInt(120),
+                1 + random.nextInt(12), 1 + random.nextInt(28));
+        } else if (type.equals("Timestamp")) {
+            return MONTHS[random.nextInt(12)] + " " + (1 + random.nextInt(28))
+                + ", " + (1900 + random.nextInt(120)) + " "
+                + random.nextInt(24) + ":" + String.format("%02d", random.nextInt(60));
+        } else {
+            return "Name " + row + " " + Integer.toHexString(random.nextInt());
+        }
+    }
+}
+
+// End HtmlGenerator.java
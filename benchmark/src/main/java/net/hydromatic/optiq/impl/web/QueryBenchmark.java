@@ -0,0 +1,138 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks SQL queries through the Optiq JDBC driver against a generated
+ * page on a file: URL.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class QueryBenchmark {
+    @Param({"1000", "10000" })
+    int rows;
+
+    @Param({"false", "true" })
+    boolean smart;
+
+    @Param({"false", "true" })
+    boolean materialize;
+
+    private Connection connection;
+
+    @Setup
+    public void setUp() throws Exception {
+        String url = HtmlGenerator.write(this.rows, HtmlGenerator.TYPES.length,
+            "plain");
+
+        StringBuilder fields = new StringBuilder();
+        for (int i = 0; i < HtmlGenerator.TYPES.length; i++) {
+            fields.append((i == 0) ? "" : ", ").append("{th: 'C").append(i)
+                .append("', type: '").append(HtmlGenerator.TYPES[i]).append("'}");
+        }
+        String model = "{\n"
+            + "  version: '1.0',\n"
+            + "  defaultSchema: 'BENCH',\n"
+            + "  schemas: [{\n"
+            + "    name: 'BENCH',\n"
+            + "    type: 'custom',\n"
+            + "    factory: 'net.hydromatic.optiq.impl.web.WebSchemaFactory',\n"
+            + "    operand: {\n"
+            + "      smart: " + this.smart + ",\n"
+            + "      tables: [{\n"
+            + "        name: 'T',\n"
+            + "        url: '" + url + "',\n"
+            + "        materialize: " + this.materialize + ",\n"
+            + "        fields: [" + fields + "]\n"
+            + "      }]\n"
+            + "    }\n"
+            + "  }]\n"
+            + "}\n";
+        File file = File.createTempFile("optiq-web-bench-model-", ".json");
+        file.deleteOnExit();
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write(model);
+        } finally {
+            out.close();
+        }
+
+        Class.forName("net.hydromatic.optiq.jdbc.Driver");
+        this.connection = DriverManager.getConnection("jdbc:optiq:model="
+            + file.getPath(), "admin", "admin");
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        this.connection.close();
+    }
+
+    private void run(String sql, Blackhole blackhole) throws SQLException {
+        Statement statement = this.connection.createStatement();
+        try {
+            ResultSet resultSet = statement.executeQuery(sql);
+            int columns = resultSet.getMetaData().getColumnCount();
+            while (resultSet.next()) {
+                for (int i = 1; i <= columns; i++) {
+                    blackhole.consume(resultSet.getObject(i));
+                }
+            }
+            resultSet.close();
+        } finally {
+            statement.close();
+        }
+    }
+
+    @Benchmark
+    public void selectAll(Blackhole blackhole) throws SQLException {
+        run("select * from \"T\"", blackhole);
+    }
+
+    @Benchmark
+    public void filterProject(Blackhole blackhole) throws SQLException {
+        run("select \"C0\", \"C4\" from \"T\" where \"C2\" > 5000000", blackhole);
+    }
+
+    @Benchmark
+    public void aggregate(Blackhole blackhole) throws SQLException {
+        run("select \"C1\", count(*), sum(\"C4\") from \"T\" group by \"C1\"",
+            blackhole);
+    }
+}
+
+// End QueryBenchmark.java
@@ -0,0 +1,99 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import org.jsoup.select.Elements;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import java.net.URL;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks page parsing, table location and row scanning.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ReaderBenchmark {
+    @Param({"100", "10000" })
+    int rows;
+
+    @Param({"4", "16" })
+    int cols;
+
+    @Param({"plain", "markup" })
+    String complexity;
+
+    private String url;
+    private byte[] content;
+    private WebReader reader;
+    private WebReader streamingReader;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.url = HtmlGenerator.write(this.rows, this.cols, this.complexity);
+        this.content = WebPageCache.readFully(
+            new FileInputStream(new URL(this.url).getFile()));
+
+        // page and document are cached; readers locate the table up front
+        this.reader = new WebReader(this.url);
+        this.reader.getHeadings();
+        this.streamingReader = new WebReader(this.url);
+        this.streamingReader.setStreaming(true);
+    }
+
+    /** Parses the page into a DOM. */
+    @Benchmark
+    public Object parse() throws WebReaderException {
+        return new WebPage(this.url, this.content, "UTF-8", 0L, null, null, false)
+            .document();
+    }
+
+    /** Finds the best table in an already parsed page. */
+    @Benchmark
+    public int locateTable() throws WebReaderException {
+        return new WebReader(this.url).getRowCount();
+    }
+
+    /** Scans the cells of a located table. */
+    @Benchmark
+    public void scanRows(Blackhole blackhole) {
+        for (Elements row : this.reader) {
+            blackhole.consume(row);
+        }
+    }
+
+    /** Tokenizes the table's rows straight off the page. */
+    @Benchmark
+    public void streamRows(Blackhole blackhole) {
+        for (Elements row : this.streamingReader) {
+            blackhole.consume(row);
+        }
+    }
+}
+
+// End ReaderBenchmark.java
@@ -0,0 +1,364 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Default {@link WebFetcher}, on the JDK's HTTP client.
+ *
+ * <p>Bodies are always read to the end and closed, so the JDK returns the
+ * connection to its keep-alive pool for the next request to the same host.
+ * Responses are requested compressed (gzip or deflate) and decoded here. At
+ * most <code>perHost</code> requests are in flight to any one host; the rest
+ * wait for a turn. A body larger than <code>maxBodySize</code> is an error
+ * rather than being silently truncated. Redirects are followed here, up to
+ * {@link #MAX_REDIRECTS} of them, including from http to https, which the
+ * JDK will not follow by itself.</p>
+ *
+ * <p>Settings come from the <code>fetch</code> entry of a schema operand;
+ * times are in milliseconds, and 0 means no limit:</p>
+ * <pre>
+ * fetch: {connectTimeout: 10000, readTimeout: 30000, maxBodySize: 16777216,
+ *     perHost: 4, compress: true, userAgent: "optiq-web"}
+ * </pre>
+ */
+public class HttpWebFetcher implements WebFetcher {
+    static final int DEFAULT_CONNECT_TIMEOUT = 10 * 1000;
+    static final int DEFAULT_READ_TIMEOUT = 30 * 1000;
+    static final long DEFAULT_MAX_BODY_SIZE = 16 * 1024 * 1024L;
+    static final int DEFAULT_PER_HOST = 4;
+    static final String DEFAULT_USER_AGENT = "optiq-web";
+    /** Most redirects followed for one request. */
+    static final int MAX_REDIRECTS = 5;
+
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final long maxBodySize;
+    private final int perHost;
+    private final boolean compress;
+    private final String userAgent;
+
+    // guarded by itself
+    private final Map<String, Semaphore> hosts = new HashMap<String, Semaphore>();
+
+    /** Creates a fetcher with default settings. */
+    public HttpWebFetcher() {
+        this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, DEFAULT_MAX_BODY_SIZE,
+            DEFAULT_PER_HOST, true, DEFAULT_USER_AGENT);
+    }
+
+    HttpWebFetcher(int connectTimeout, int readTimeout, long maxBodySize,
+        int perHost, boolean compress, String userAgent) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.maxBodySize = maxBodySize;
+        this.perHost = perHost;
+        this.compress = compress;
+        this.userAgent = userAgent;
+    }
+
+    /** Creates a fetcher from a <code>fetch</code> operand; settings that are
+     * absent take their defaults. */
+    static HttpWebFetcher of(Map<String, Object> config) {
+        return new HttpWebFetcher(
+            intValue(config, "connectTimeout", DEFAULT_CONNECT_TIMEOUT),
+            intValue(config, "readTimeout", DEFAULT_READ_TIMEOUT),
+            (config.get("maxBodySize") == null) ? DEFAULT_MAX_BODY_SIZE
+                : ((Number) config.get("maxBodySize")).longValue(),
+            intValue(config, "perHost", DEFAULT_PER_HOST),
+            (config.get("compress") == null)
+                || ((Boolean) config.get("compress")).booleanValue(),
+            (config.get("userAgent") == null) ? DEFAULT_USER_AGENT
+                : (String) config.get("userAgent"));
+    }
+
+    private static int intValue(Map<String, Object> config, String key,
+        int defaultValue) {
+        Number value = (Number) config.get(key);
+        return (value == null) ? defaultValue : value.intValue();
+    }
+
+    public Response fetch(URL url, Map<String, String> headers)
+        throws IOException {
+        Semaphore permits = acquire(url);
+        try {
+            return execute(url, headers);
+        } finally {
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Opens a URL for reading as the caller goes, rather than reading the
+     * body up front; used by streamed scans of pages that are not cached.
+     * The host's turn is held until the stream is closed. A status other than
+     * 2xx leaves the body null.
+     */
+    Body open(URL url) throws IOException {
+        final Semaphore permits = acquire(url);
+        boolean opened = false;
+        try {
+            HttpURLConnection connection =
+                connect(url, Collections.<String, String>emptyMap());
+            int status = connection.getResponseCode();
+            String charset = charset(connection.getContentType());
+            if (status < 200 || status >= 300) {
+                InputStream error = connection.getErrorStream();
+                if (error != null) {
+                    error.close();
+                }
+                return new Body(status, null, charset);
+            }
+            InputStream in = new FilterInputStream(
+                decode(connection.getInputStream(),
+                    connection.getContentEncoding())) {
+                private boolean closed = false;
+
+                @Override
+                public void close() throws IOException {
+                    if (this.closed) {
+                        return;
+                    }
+                    this.closed = true;
+                    try {
+                        super.close();
+                    } finally {
+                        if (permits != null) {
+                            permits.release();
+                        }
+                    }
+                }
+            };
+            opened = true;
+            return new Body(status, in, charset);
+        } finally {
+            if (!opened && permits != null) {
+                permits.release();
+            }
+        }
+    }
+
+    /** What {@link #open(URL)} returns: the status, and the body as a stream
+     * that must be closed. */
+    static class Body {
+        final int status;
+        final InputStream in;
+        final String charset;
+
+        Body(int status, InputStream in, String charset) {
+            this.status = status;
+            this.in = in;
+            this.charset = charset;
+        }
+    }
+
+    // wait for a turn at a host; returns what to release, or null
+    private Semaphore acquire(URL url) throws IOException {
+        Semaphore permits = permits(url.getHost());
+        if (permits != null) {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for "
+                    + url.getHost());
+            }
+        }
+        return permits;
+    }
+
+    private Semaphore permits(String host) {
+        if (this.perHost <= 0) {
+            return null;
+        }
+        synchronized (this.hosts) {
+            Semaphore permits = this.hosts.get(host);
+            if (permits == null) {
+                permits = new Semaphore(this.perHost, true);
+                this.hosts.put(host, permits);
+            }
+            return permits;
+        }
+    }
+
+    private Response execute(URL url, Map<String, String> headers)
+        throws IOException {
+        HttpURLConnection connection = connect(url, headers);
+        int status = connection.getResponseCode();
+        long length = connection.getContentLength();
+        if (this.maxBodySize > 0 && length > this.maxBodySize) {
+            connection.disconnect();
+            throw tooBig(url);
+        }
+        InputStream in = (status >= 400)
+            ? connection.getErrorStream() : connection.getInputStream();
+        byte[] body = (in == null) ? new byte[0]
+            : read(decode(in, connection.getContentEncoding()), url);
+
+        return new Response(status, body,
+            charset(connection.getContentType()),
+            connection.getHeaderField("ETag"),
+            connection.getHeaderField("Last-Modified"));
+    }
+
+    // send a request, following redirects to the response that is not one
+    private HttpURLConnection connect(URL url, Map<String, String> headers)
+        throws IOException {
+        URL target = url;
+        for (int hops = 0;; hops++) {
+            HttpURLConnection connection = request(target, headers);
+            int status = connection.getResponseCode();
+            String location = connection.getHeaderField("Location");
+            if (!isRedirect(status) || location == null) {
+                return connection;
+            }
+            discard(connection);
+            if (hops >= MAX_REDIRECTS) {
+                throw new IOException("too many redirects from " + url);
+            }
+            target = new URL(target, location);
+            if (!target.getProtocol().equals("http")
+                && !target.getProtocol().equals("https")) {
+                throw new IOException("bad redirect from " + url + ": '"
+                    + location + "'");
+            }
+        }
+    }
+
+    private static boolean isRedirect(int status) {
+        switch (status) {
+        case 301:
+        case 302:
+        case 303:
+        case 307:
+        case 308:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    // read and drop the body of a redirect, so the connection can be reused
+    private static void discard(HttpURLConnection connection) {
+        try {
+            InputStream in = connection.getInputStream();
+            try {
+                byte[] buf = new byte[1024];
+                while (in.read(buf) >= 0) {
+                    // nothing to keep
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            connection.disconnect();
+        }
+    }
+
+    // send one request
+    private HttpURLConnection request(URL url, Map<String, String> headers)
+        throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(this.connectTimeout);
+        connection.setReadTimeout(this.readTimeout);
+        connection.setInstanceFollowRedirects(false);
+        connection.setRequestProperty("User-Agent", this.userAgent);
+        connection.setRequestProperty("Accept-Encoding",
+            this.compress ? "gzip, deflate" : "identity");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        return connection;
+    }
+
+    private static InputStream decode(InputStream in, String encoding)
+        throws IOException {
+        if (encoding == null) {
+            return in;
+        }
+        encoding = encoding.trim().toLowerCase();
+        if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+            return new GZIPInputStream(in);
+        }
+        if (encoding.equals("deflate")) {
+            return new InflaterInputStream(in);
+        }
+        return in;
+    }
+
+    // read a body to the end, which lets the connection be reused
+    private byte[] read(InputStream in, URL url) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+                if (this.maxBodySize > 0 && out.size() > this.maxBodySize) {
+                    throw tooBig(url);
+                }
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private IOException tooBig(URL url) {
+        return new IOException("body of " + url + " exceeds maxBodySize ("
+            + this.maxBodySize + " bytes)");
+    }
+
+    // the charset parameter of a Content-Type header, or null
+    static String charset(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        for (String param : contentType.split(";")) {
+            param = param.trim();
+            if (param.toLowerCase().startsWith("charset=")) {
+                String charset = param.substring("charset=".length()).trim();
+                if (charset.startsWith("\"") && charset.endsWith("\"")
+                    && charset.length() > 1) {
+                    charset = charset.substring(1, charset.length() - 1);
+                }
+                return (charset.length() == 0) ? null : charset;
+            }
+        }
+        return null;
+    }
+}
+
+// End HttpWebFetcher.java
@@ -0,0 +1,202 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import net.hydromatic.linq4j.Enumerator;
+
+/**
+ * A batch of rows from a web table, held column by column.
+ *
+ * <p>Each column is a {@link WebColumn}, so values sit in primitive arrays
+ * (or a dictionary, for strings); a selection vector lists the rows of the
+ * batch that passed the scan's filters. The aggregate methods run over the
+ * selected rows without boxing each value.</p>
+ *
+ * <p>Batches come from {@link WebTable#batches(int[], String[])}. Plans that
+ * need a row at a time read batches through {@link #rows(Enumerator)}.</p>
+ */
+public class WebBatch {
+    /** Rows read per batch, before filtering. */
+    public static final int DEFAULT_SIZE = 4096;
+
+    private final WebColumn[] columns;
+    private final int[] selection;
+    private final int count;
+
+    WebBatch(WebColumn[] columns, int[] selection, int count) {
+        this.columns = columns;
+        this.selection = selection;
+        this.count = count;
+    }
+
+    /** Number of fields (projected columns). */
+    public int getFieldCount() {
+        return this.columns.length;
+    }
+
+    /** Number of selected rows. */
+    public int size() {
+        return this.count;
+    }
+
+    WebFieldType getType(int field) {
+        return this.columns[field].getType();
+    }
+
+    /** Value of a field in the i-th selected row, boxed, or null. */
+    public Object get(int field, int i) {
+        return this.columns[field].get(this.selection[i]);
+    }
+
+    /** Whether a field is null in the i-th selected row. */
+    public boolean isNull(int field, int i) {
+        return this.columns[field].isNull(this.selection[i]);
+    }
+
+    /** Number of selected rows where a field is not null. */
+    public int count(int field) {
+        return this.columns[field].count(this.selection, this.count);
+    }
+
+    /** Sum of a numeric field over the selected rows, ignoring nulls. */
+    public double sum(int field) {
+        return this.columns[field].sum(this.selection, this.count);
+    }
+
+    /** Least value of a numeric or date/time field, or null. */
+    public Object min(int field) {
+        return this.columns[field].min(this.selection, this.count);
+    }
+
+    /** Greatest value of a numeric or date/time field, or null. */
+    public Object max(int field) {
+        return this.columns[field].max(this.selection, this.count);
+    }
+
+    /** Returns the rows of some batches, one <code>Object[]</code> at a
+     * time. */
+    static Enumerator<Object> rows(Enumerator<WebBatch> batches) {
+        return new RowEnumerator(batches);
+    }
+
+    /** Groups rows (<code>Object[]</code>s of values of the given types) into
+     * batches; for sources that only produce rows. */
+    static Enumerator<WebBatch> fromRows(Enumerator<Object> rows,
+        WebFieldType[] types, int size) {
+        return new RowBatcher(rows, types, size);
+    }
+
+    // row-at-a-time adapter
+    private static class RowEnumerator implements Enumerator<Object> {
+        private final Enumerator<WebBatch> batches;
+        private WebBatch batch;
+        private int i;
+        private Object current;
+
+        RowEnumerator(Enumerator<WebBatch> batches) {
+            this.batches = batches;
+        }
+
+        public Object current() {
+            return this.current;
+        }
+
+        public boolean moveNext() {
+            while (this.batch == null || this.i >= this.batch.count) {
+                if (!this.batches.moveNext()) {
+                    this.batch = null;
+                    this.current = null;
+                    return false;
+                }
+                this.batch = this.batches.current();
+                this.i = 0;
+            }
+            Object[] row = new Object[this.batch.columns.length];
+            int r = this.batch.selection[this.i++];
+            for (int f = 0; f < row.length; f++) {
+                row[f] = this.batch.columns[f].get(r);
+            }
+            this.current = row;
+            return true;
+        }
+
+        public void reset() {
+            this.batches.reset();
+            this.batch = null;
+            this.current = null;
+        }
+
+        public void close() {
+            this.batches.close();
+        }
+    }
+
+    // batches of rows from a row source
+    private static class RowBatcher implements Enumerator<WebBatch> {
+        private final Enumerator<Object> rows;
+        private final WebFieldType[] types;
+        private final int size;
+        private WebBatch current;
+
+        RowBatcher(Enumerator<Object> rows, WebFieldType[] types, int size) {
+            this.rows = rows;
+            this.types = types;
+            this.size = size;
+        }
+
+        public WebBatch current() {
+            return this.current;
+        }
+
+        public boolean moveNext() {
+            WebColumn.Builder[] builders = new WebColumn.Builder[this.types.length];
+            for (int f = 0; f < builders.length; f++) {
+                builders[f] = WebColumn.builder(this.types[f]);
+            }
+            int n = 0;
+            while (n < this.size && this.rows.moveNext()) {
+                Object[] row = (Object[]) this.rows.current();
+                for (int f = 0; f < builders.length; f++) {
+                    builders[f].add(row[f]);
+                }
+                n++;
+            }
+            if (n == 0) {
+                this.current = null;
+                return false;
+            }
+            WebColumn[] columns = new WebColumn[builders.length];
+            for (int f = 0; f < columns.length; f++) {
+                columns[f] = builders[f].build();
+            }
+            this.current = new WebBatch(columns, WebEnumerator.identityList(n), n);
+            return true;
+        }
+
+        public void reset() {
+            this.rows.reset();
+            this.current = null;
+        }
+
+        public void close() {
+            this.rows.close();
+        }
+    }
+}
+
+// End WebBatch.java
@@ -0,0 +1,139 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import net.hydromatic.linq4j.Enumerator;
+
+import org.jsoup.select.Elements;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+
+/**
+ * Reads a web table in batches of rows.
+ *
+ * <p>The cells of a batch are converted a column at a time, and lazily:
+ * filtered fields first, cheapest first, each only for the rows that passed
+ * the filters before it; then the remaining projected fields, only for the
+ * rows that passed them all.</p>
+ */
+class WebBatchReader implements Enumerator<WebBatch> {
+    private final Iterable<Elements> source;
+    private final WebRowConverter converter;
+    private final int[] fields;
+    private final WebFilter[] filters;
+    private final Elements[] rows;
+    private Iterator<Elements> iterator;
+    private WebBatch current;
+    // cells converted since the last flush
+    private final WebStats.Tally tally = new WebStats.Tally();
+
+    WebBatchReader(Iterable<Elements> source, final WebRowConverter converter,
+        int[] fields, WebFilter[] filters, int size) {
+        this.source = source;
+        this.converter = converter;
+        this.fields = fields;
+        this.filters = filters.clone();
+        Arrays.sort(this.filters, new Comparator<WebFilter>() {
+            public int compare(WebFilter f1, WebFilter f2) {
+                return converter.cost(f1.getField()) - converter.cost(f2.getField());
+            }
+        });
+        this.rows = new Elements[size];
+        this.iterator = source.iterator();
+    }
+
+    public WebBatch current() {
+        return this.current;
+    }
+
+    public boolean moveNext() {
+        for (;;) {
+            int m = 0;
+            while (m < this.rows.length && this.iterator.hasNext()) {
+                this.rows[m++] = this.iterator.next();
+            }
+            if (m == 0) {
+                this.current = null;
+                this.tally.flush();
+                return false;
+            }
+
+            int[] sel = WebEnumerator.identityList(m);
+            int n = m;
+            WebColumn[] converted = new WebColumn[this.converter.width()];
+            for (WebFilter filter : this.filters) {
+                int field = filter.getField();
+                if (converted[field] == null) {
+                    converted[field] = convert(field, m, sel, n);
+                }
+                n = converted[field].filter(filter, sel, n);
+                if (n == 0) {
+                    break;
+                }
+            }
+            if (n == 0) {
+                continue;
+            }
+
+            WebColumn[] columns = new WebColumn[this.fields.length];
+            for (int i = 0; i < columns.length; i++) {
+                int field = this.fields[i];
+                if (converted[field] == null) {
+                    converted[field] = convert(field, m, sel, n);
+                }
+                columns[i] = converted[field];
+            }
+            Arrays.fill(this.rows, 0, m, null);
+            this.current = new WebBatch(columns, sel, n);
+            return true;
+        }
+    }
+
+    // a field of the buffered rows; rows outside the selection are left null
+    private WebColumn convert(int field, int m, int[] sel, int n) {
+        WebColumn.Builder builder = WebColumn.builder(this.converter.getFieldType(field));
+        int j = 0;
+        for (int row = 0; row < m; row++) {
+            if (j < n && sel[j] == row) {
+                builder.add(
+                    this.converter.convertField(this.rows[row], field, this.tally));
+                j++;
+            } else {
+                builder.add(null);
+            }
+        }
+        return builder.build();
+    }
+
+    public void reset() {
+        close();
+        this.iterator = this.source.iterator();
+        this.current = null;
+    }
+
+    public void close() {
+        this.tally.flush();
+        if (this.iterator instanceof WebReader.WebReaderIterator) {
+            ((WebReader.WebReaderIterator) this.iterator).close();
+        }
+    }
+}
+
+// End WebBatchReader.java
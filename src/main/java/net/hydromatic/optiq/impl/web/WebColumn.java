@@ -0,0 +1,801 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A column of converted values held in a primitive array.
+ *
+ * <p>Integral types up to INT share an <code>int[]</code>, LONG and the
+ * date/time types a <code>long[]</code> (milliseconds for the latter), FLOAT
+ * and DOUBLE a <code>double[]</code>; strings are dictionary-encoded. Nulls
+ * are tracked in a bitmap. {@link #get(int)} boxes a value back to the Java
+ * type {@link WebRowConverter} would have produced for the cell.</p>
+ *
+ * <p>The kernels ({@link #filter}, {@link #count}, {@link #sum}, {@link #min},
+ * {@link #max}) work on a selection vector: an array of row numbers of which
+ * the first <code>n</code> are in play. Numeric columns run them on the
+ * primitive values; string columns test each distinct value once, and once
+ * per scan if the filter is bound with {@link #selector}.</p>
+ *
+ * <p>A column can be written to a stream and read back from one (see
+ * {@link WebSnapshot}): the null bitmap as 64-bit words, then the values in
+ * row order, strings as a dictionary of UTF-8 byte arrays followed by the
+ * codes.</p>
+ */
+abstract class WebColumn {
+    protected final WebFieldType type;
+    protected final BitSet nulls;
+    protected final int size;
+    private int distinctCount = -1;
+
+    protected WebColumn(WebFieldType type, BitSet nulls, int size) {
+        this.type = type;
+        this.nulls = nulls;
+        this.size = size;
+    }
+
+    WebFieldType getType() {
+        return this.type;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    boolean isNull(int row) {
+        return this.nulls.get(row);
+    }
+
+    /** Returns the value at a row, boxed, or null. */
+    abstract Object get(int row);
+
+    /** Returns the number of distinct non-null values; computed on first
+     * use. */
+    synchronized int distinctCount() {
+        if (this.distinctCount < 0) {
+            this.distinctCount = countDistinct();
+        }
+        return this.distinctCount;
+    }
+
+    protected abstract int countDistinct();
+
+    /** Whether the column has no nulls and no repeated values. */
+    boolean isUnique() {
+        return this.nulls.isEmpty() && distinctCount() == this.size;
+    }
+
+    /** Narrows a selection to the rows that pass a filter, compacting them to
+     * the front of <code>sel</code>; returns how many are left. */
+    int filter(WebFilter filter, int[] sel, int n) {
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            int row = sel[i];
+            if (filter.accept(get(row))) {
+                sel[k++] = row;
+            }
+        }
+        return k;
+    }
+
+    /** Binds a filter to this column for one scan, whose batches share the
+     * column. */
+    Selector selector(final WebFilter filter) {
+        return new Selector() {
+            int filter(int[] sel, int n) {
+                return WebColumn.this.filter(filter, sel, n);
+            }
+        };
+    }
+
+    /** A filter bound to a column for one scan; what it learns from one batch
+     * it keeps for the next. Not thread-safe. */
+    abstract static class Selector {
+        /** Narrows a selection, as {@link WebColumn#filter} does. */
+        abstract int filter(int[] sel, int n);
+    }
+
+    /** Number of non-null values among the selected rows. */
+    int count(int[] sel, int n) {
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            if (!this.nulls.get(sel[i])) {
+                k++;
+            }
+        }
+        return k;
+    }
+
+    /** Sum of the non-null selected values; numeric columns only. */
+    double sum(int[] sel, int n) {
+        throw new UnsupportedOperationException("sum of " + this.type);
+    }
+
+    /** Least non-null selected value, or null; numeric and date/time columns
+     * only. */
+    Object min(int[] sel, int n) {
+        return extreme(sel, n, true);
+    }
+
+    /** Greatest non-null selected value, or null; numeric and date/time
+     * columns only. */
+    Object max(int[] sel, int n) {
+        return extreme(sel, n, false);
+    }
+
+    // row holding the least (or greatest) value, as a boxed value
+    private Object extreme(int[] sel, int n, boolean least) {
+        int best = -1;
+        for (int i = 0; i < n; i++) {
+            int row = sel[i];
+            if (this.nulls.get(row)) {
+                continue;
+            }
+            if (best < 0) {
+                best = row;
+                continue;
+            }
+            int c = compareRows(row, best);
+            if (least ? c < 0 : c > 0) {
+                best = row;
+            }
+        }
+        return (best < 0) ? null : get(best);
+    }
+
+    /** Compares the values of two non-null rows. */
+    protected int compareRows(int row1, int row2) {
+        throw new UnsupportedOperationException("min/max of " + this.type);
+    }
+
+    /** Writes the nulls and values of the column. */
+    void write(DataOutputStream out) throws IOException {
+        writeBits(out, this.nulls, this.size);
+        writeValues(out);
+    }
+
+    protected abstract void writeValues(DataOutputStream out) throws IOException;
+
+    /** Reads a column written by {@link #write}. */
+    static WebColumn read(DataInputStream in, WebFieldType type, int size)
+        throws IOException {
+        BitSet nulls = readBits(in, size);
+        switch (type) {
+        case BOOLEAN:
+            return new BooleanColumn(type, nulls, size, readBits(in, size));
+        case BYTE:
+        case SHORT:
+        case INT:
+            int[] ints = new int[checkLength(in, size, 4)];
+            for (int i = 0; i < size; i++) {
+                ints[i] = in.readInt();
+            }
+            return new IntColumn(type, nulls, size, ints);
+        case LONG:
+        case DATE:
+        case TIME:
+        case TIMESTAMP:
+            long[] longs = new long[checkLength(in, size, 8)];
+            for (int i = 0; i < size; i++) {
+                longs[i] = in.readLong();
+            }
+            return new LongColumn(type, nulls, size, longs);
+        case FLOAT:
+        case DOUBLE:
+            double[] doubles = new double[checkLength(in, size, 8)];
+            for (int i = 0; i < size; i++) {
+                doubles[i] = in.readDouble();
+            }
+            return new DoubleColumn(type, nulls, size, doubles);
+        default:
+            String[] dictionary = new String[readLength(in, 4)];
+            for (int i = 0; i < dictionary.length; i++) {
+                byte[] bytes = new byte[readLength(in, 1)];
+                in.readFully(bytes);
+                dictionary[i] = new String(bytes, "UTF-8");
+            }
+            int[] codes = new int[checkLength(in, size, 4)];
+            for (int i = 0; i < size; i++) {
+                codes[i] = in.readInt();
+            }
+            return new StringColumn(type, nulls, size, codes, dictionary);
+        }
+    }
+
+    /** Reads a length or count written before items of the given size,
+     * checked against what is left of the input. */
+    static int readLength(DataInputStream in, int itemBytes) throws IOException {
+        return checkLength(in, in.readInt(), itemBytes);
+    }
+
+    // a damaged file must fail, not ask for a huge array; for a buffered file,
+    // available() is the number of bytes left
+    private static int checkLength(DataInputStream in, int n, int itemBytes)
+        throws IOException {
+        if (n < 0 || (long) n * itemBytes > in.available()) {
+            throw new IOException("bad length: " + n);
+        }
+        return n;
+    }
+
+    // bits below size, as 64-bit words
+    private static void writeBits(DataOutputStream out, BitSet bits, int size)
+        throws IOException {
+        long[] words = new long[(size + 63) / 64];
+        for (int i = bits.nextSetBit(0); i >= 0 && i < size;
+            i = bits.nextSetBit(i + 1)) {
+            words[i >> 6] |= 1L << (i & 63);
+        }
+        for (long word : words) {
+            out.writeLong(word);
+        }
+    }
+
+    private static BitSet readBits(DataInputStream in, int size)
+        throws IOException {
+        BitSet bits = new BitSet();
+        int words = (size + 63) / 64;
+        for (int i = 0; i < words; i++) {
+            long word = in.readLong();
+            while (word != 0) {
+                bits.set((i << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return bits;
+    }
+
+    /** Creates a builder for a column of the given type (null means STRING). */
+    static Builder builder(WebFieldType type) {
+        if (type == null) {
+            return new DictionaryBuilder(WebFieldType.STRING);
+        }
+        switch (type) {
+        case BOOLEAN:
+            return new BooleanBuilder(type);
+        case BYTE:
+        case SHORT:
+        case INT:
+            return new IntBuilder(type);
+        case LONG:
+        case DATE:
+        case TIME:
+        case TIMESTAMP:
+            return new LongBuilder(type);
+        case FLOAT:
+        case DOUBLE:
+            return new DoubleBuilder(type);
+        default:
+            return new DictionaryBuilder(type);
+        }
+    }
+
+    /** Accumulates values row by row, then produces a column. */
+    abstract static class Builder {
+        protected final WebFieldType type;
+        protected final BitSet nulls = new BitSet();
+        protected int size = 0;
+
+        Builder(WebFieldType type) {
+            this.type = type;
+        }
+
+        void add(Object value) {
+            if (value == null) {
+                this.nulls.set(this.size);
+            } else {
+                set(this.size, value);
+            }
+            this.size++;
+        }
+
+        // new array length, large enough to hold the given row
+        protected static int capacity(int current, int row) {
+            return Math.max(Math.max(16, current * 2), row + 1);
+        }
+
+        protected abstract void set(int row, Object value);
+
+        abstract WebColumn build();
+    }
+
+    // builders
+
+    private static class IntBuilder extends Builder {
+        private int[] values = new int[0];
+
+        IntBuilder(WebFieldType type) {
+            super(type);
+        }
+
+        protected void set(int row, Object value) {
+            if (row >= this.values.length) {
+                int[] grown = new int[capacity(this.values.length, row)];
+                System.arraycopy(this.values, 0, grown, 0, this.values.length);
+                this.values = grown;
+            }
+            this.values[row] = ((Number) value).intValue();
+        }
+
+        WebColumn build() {
+            return new IntColumn(this.type, this.nulls, this.size, this.values);
+        }
+    }
+
+    private static class LongBuilder extends Builder {
+        private long[] values = new long[0];
+
+        LongBuilder(WebFieldType type) {
+            super(type);
+        }
+
+        protected void set(int row, Object value) {
+            if (row >= this.values.length) {
+                long[] grown = new long[capacity(this.values.length, row)];
+                System.arraycopy(this.values, 0, grown, 0, this.values.length);
+                this.values = grown;
+            }
+            this.values[row] = (value instanceof java.util.Date)
+                ? ((java.util.Date) value).getTime()
+                : ((Number) value).longValue();
+        }
+
+        WebColumn build() {
+            return new LongColumn(this.type, this.nulls, this.size, this.values);
+        }
+    }
+
+    private static class DoubleBuilder extends Builder {
+        private double[] values = new double[0];
+
+        DoubleBuilder(WebFieldType type) {
+            super(type);
+        }
+
+        protected void set(int row, Object value) {
+            if (row >= this.values.length) {
+                double[] grown = new double[capacity(this.values.length, row)];
+                System.arraycopy(this.values, 0, grown, 0, this.values.length);
+                this.values = grown;
+            }
+            this.values[row] = ((Number) value).doubleValue();
+        }
+
+        WebColumn build() {
+            return new DoubleColumn(this.type, this.nulls, this.size, this.values);
+        }
+    }
+
+    private static class BooleanBuilder extends Builder {
+        private final BitSet values = new BitSet();
+
+        BooleanBuilder(WebFieldType type) {
+            super(type);
+        }
+
+        protected void set(int row, Object value) {
+            this.values.set(row, ((Boolean) value).booleanValue());
+        }
+
+        WebColumn build() {
+            return new BooleanColumn(this.type, this.nulls, this.size, this.values);
+        }
+    }
+
+    private static class DictionaryBuilder extends Builder {
+        private final Map<String, Integer> codes = new HashMap<String, Integer>();
+        private String[] dictionary = new String[0];
+        private int[] values = new int[0];
+
+        DictionaryBuilder(WebFieldType type) {
+            super(type);
+        }
+
+        protected void set(int row, Object value) {
+            if (row >= this.values.length) {
+                int[] grown = new int[capacity(this.values.length, row)];
+                System.arraycopy(this.values, 0, grown, 0, this.values.length);
+                this.values = grown;
+            }
+            String string = value.toString();
+            Integer code = this.codes.get(string);
+            if (code == null) {
+                int n = this.codes.size();
+                if (n >= this.dictionary.length) {
+                    String[] grown = new String[Math.max(16, n * 2)];
+                    System.arraycopy(this.dictionary, 0, grown, 0, n);
+                    this.dictionary = grown;
+                }
+                this.dictionary[n] = string;
+                code = Integer.valueOf(n);
+                this.codes.put(string, code);
+            }
+            this.values[row] = code.intValue();
+        }
+
+        WebColumn build() {
+            return new StringColumn(this.type, this.nulls, this.size, this.values,
+                this.dictionary);
+        }
+    }
+
+    // columns
+
+    private static class IntColumn extends WebColumn {
+        private final int[] values;
+
+        IntColumn(WebFieldType type, BitSet nulls, int size, int[] values) {
+            super(type, nulls, size);
+            this.values = values;
+        }
+
+        // arrays stop at the last non-null value
+        protected void writeValues(DataOutputStream out) throws IOException {
+            for (int row = 0; row < this.size; row++) {
+                out.writeInt((row < this.values.length) ? this.values[row] : 0);
+            }
+        }
+
+        Object get(int row) {
+            if (this.nulls.get(row)) {
+                return null;
+            }
+            int value = this.values[row];
+            switch (this.type) {
+            case BYTE:
+                return Byte.valueOf((byte) value);
+            case SHORT:
+                return Short.valueOf((short) value);
+            default:
+                return Integer.valueOf(value);
+            }
+        }
+
+        int filter(WebFilter filter, int[] sel, int n) {
+            if (!filter.isNumeric()) {
+                return super.filter(filter, sel, n);
+            }
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                int row = sel[i];
+                if (!this.nulls.get(row) && filter.accept((double) this.values[row])) {
+                    sel[k++] = row;
+                }
+            }
+            return k;
+        }
+
+        double sum(int[] sel, int n) {
+            long sum = 0;
+            for (int i = 0; i < n; i++) {
+                if (!this.nulls.get(sel[i])) {
+                    sum += this.values[sel[i]];
+                }
+            }
+            return sum;
+        }
+
+        protected int compareRows(int row1, int row2) {
+            int v1 = this.values[row1];
+            int v2 = this.values[row2];
+            return (v1 < v2) ? -1 : ((v1 == v2) ? 0 : 1);
+        }
+
+        protected int countDistinct() {
+            int[] sorted = new int[this.size - this.nulls.cardinality()];
+            int n = 0;
+            for (int row = 0; row < this.size; row++) {
+                if (!this.nulls.get(row)) {
+                    sorted[n++] = this.values[row];
+                }
+            }
+            Arrays.sort(sorted);
+            int distinct = 0;
+            for (int i = 0; i < n; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1]) {
+                    distinct++;
+                }
+            }
+            return distinct;
+        }
+    }
+
+    private static class LongColumn extends WebColumn {
+        private final long[] values;
+
+        LongColumn(WebFieldType type, BitSet nulls, int size, long[] values) {
+            super(type, nulls, size);
+            this.values = values;
+        }
+
+        protected void writeValues(DataOutputStream out) throws IOException {
+            for (int row = 0; row < this.size; row++) {
+                out.writeLong((row < this.values.length) ? this.values[row] : 0L);
+            }
+        }
+
+        Object get(int row) {
+            if (this.nulls.get(row)) {
+                return null;
+            }
+            long value = this.values[row];
+            switch (this.type) {
+            case DATE:
+                return new java.sql.Date(value);
+            case TIME:
+                return new java.sql.Time(value);
+            case TIMESTAMP:
+                return new java.sql.Timestamp(value);
+            default:
+                return Long.valueOf(value);
+            }
+        }
+
+        // dates and times compare as strings in filters, so only LONG is
+        // tested on the primitive values, exactly rather than as doubles
+        int filter(WebFilter filter, int[] sel, int n) {
+            if (this.type != WebFieldType.LONG || !filter.isNumeric()) {
+                return super.filter(filter, sel, n);
+            }
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                int row = sel[i];
+                if (!this.nulls.get(row) && filter.accept(this.values[row])) {
+                    sel[k++] = row;
+                }
+            }
+            return k;
+        }
+
+        double sum(int[] sel, int n) {
+            if (this.type != WebFieldType.LONG) {
+                return super.sum(sel, n);
+            }
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                if (!this.nulls.get(sel[i])) {
+                    sum += this.values[sel[i]];
+                }
+            }
+            return sum;
+        }
+
+        protected int compareRows(int row1, int row2) {
+            long v1 = this.values[row1];
+            long v2 = this.values[row2];
+            return (v1 < v2) ? -1 : ((v1 == v2) ? 0 : 1);
+        }
+
+        protected int countDistinct() {
+            long[] sorted = new long[this.size - this.nulls.cardinality()];
+            int n = 0;
+            for (int row = 0; row < this.size; row++) {
+                if (!this.nulls.get(row)) {
+                    sorted[n++] = this.values[row];
+                }
+            }
+            Arrays.sort(sorted);
+            int distinct = 0;
+            for (int i = 0; i < n; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1]) {
+                    distinct++;
+                }
+            }
+            return distinct;
+        }
+    }
+
+    private static class DoubleColumn extends WebColumn {
+        private final double[] values;
+
+        DoubleColumn(WebFieldType type, BitSet nulls, int size, double[] values) {
+            super(type, nulls, size);
+            this.values = values;
+        }
+
+        protected void writeValues(DataOutputStream out) throws IOException {
+            for (int row = 0; row < this.size; row++) {
+                out.writeDouble((row < this.values.length) ? this.values[row] : 0d);
+            }
+        }
+
+        Object get(int row) {
+            if (this.nulls.get(row)) {
+                return null;
+            }
+            if (this.type == WebFieldType.FLOAT) {
+                return Float.valueOf((float) this.values[row]);
+            }
+            return Double.valueOf(this.values[row]);
+        }
+
+        int filter(WebFilter filter, int[] sel, int n) {
+            if (!filter.isNumeric()) {
+                return super.filter(filter, sel, n);
+            }
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                int row = sel[i];
+                if (!this.nulls.get(row) && filter.accept(valueAt(row))) {
+                    sel[k++] = row;
+                }
+            }
+            return k;
+        }
+
+        // the value get() would box; a FLOAT cell is rounded to float first
+        private double valueAt(int row) {
+            return (this.type == WebFieldType.FLOAT)
+                ? (double) (float) this.values[row] : this.values[row];
+        }
+
+        double sum(int[] sel, int n) {
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                if (!this.nulls.get(sel[i])) {
+                    sum += valueAt(sel[i]);
+                }
+            }
+            return sum;
+        }
+
+        protected int compareRows(int row1, int row2) {
+            return Double.compare(valueAt(row1), valueAt(row2));
+        }
+
+        protected int countDistinct() {
+            double[] sorted = new double[this.size - this.nulls.cardinality()];
+            int n = 0;
+            for (int row = 0; row < this.size; row++) {
+                if (!this.nulls.get(row)) {
+                    sorted[n++] = this.values[row];
+                }
+            }
+            Arrays.sort(sorted);
+            int distinct = 0;
+            for (int i = 0; i < n; i++) {
+                if (i == 0 || Double.compare(sorted[i], sorted[i - 1]) != 0) {
+                    distinct++;
+                }
+            }
+            return distinct;
+        }
+    }
+
+    private static class BooleanColumn extends WebColumn {
+        private final BitSet values;
+
+        BooleanColumn(WebFieldType type, BitSet nulls, int size, BitSet values) {
+            super(type, nulls, size);
+            this.values = values;
+        }
+
+        protected void writeValues(DataOutputStream out) throws IOException {
+            writeBits(out, this.values, this.size);
+        }
+
+        Object get(int row) {
+            if (this.nulls.get(row)) {
+                return null;
+            }
+            return Boolean.valueOf(this.values.get(row));
+        }
+
+        protected int countDistinct() {
+            boolean seenTrue = false;
+            boolean seenFalse = false;
+            for (int row = 0; row < this.size; row++) {
+                if (!this.nulls.get(row)) {
+                    if (this.values.get(row)) {
+                        seenTrue = true;
+                    } else {
+                        seenFalse = true;
+                    }
+                }
+            }
+            return (seenTrue ? 1 : 0) + (seenFalse ? 1 : 0);
+        }
+    }
+
+    private static class StringColumn extends WebColumn {
+        private final int[] values;
+        private final String[] dictionary;
+
+        StringColumn(WebFieldType type, BitSet nulls, int size, int[] values,
+            String[] dictionary) {
+            super(type, nulls, size);
+            this.values = values;
+            this.dictionary = dictionary;
+        }
+
+        protected void writeValues(DataOutputStream out) throws IOException {
+            int distinct = countDistinct();
+            out.writeInt(distinct);
+            for (int i = 0; i < distinct; i++) {
+                byte[] bytes = this.dictionary[i].getBytes("UTF-8");
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            for (int row = 0; row < this.size; row++) {
+                out.writeInt((row < this.values.length) ? this.values[row] : 0);
+            }
+        }
+
+        Object get(int row) {
+            if (this.nulls.get(row)) {
+                return null;
+            }
+            return this.dictionary[this.values[row]];
+        }
+
+        // each distinct string is tested once per call
+        int filter(WebFilter filter, int[] sel, int n) {
+            return filter(filter, new byte[this.dictionary.length], sel, n);
+        }
+
+        // each distinct string is tested once per scan
+        Selector selector(final WebFilter filter) {
+            final byte[] verdicts = new byte[this.dictionary.length];
+            return new Selector() {
+                int filter(int[] sel, int n) {
+                    return StringColumn.this.filter(filter, verdicts, sel, n);
+                }
+            };
+        }
+
+        // verdicts: 0 = not tested yet, 1 = passes, 2 = fails
+        private int filter(WebFilter filter, byte[] verdicts, int[] sel, int n) {
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                int row = sel[i];
+                if (this.nulls.get(row)) {
+                    continue;
+                }
+                int code = this.values[row];
+                if (verdicts[code] == 0) {
+                    verdicts[code] = filter.accept(this.dictionary[code]) ? (byte) 1 : 2;
+                }
+                if (verdicts[code] == 1) {
+                    sel[k++] = row;
+                }
+            }
+            return k;
+        }
+
+        // codes are only assigned to values that occur, so count the entries
+        protected int countDistinct() {
+            int distinct = 0;
+            while (distinct < this.dictionary.length
+                && this.dictionary[distinct] != null) {
+                distinct++;
+            }
+            return distinct;
+        }
+    }
+}
+
+// End WebColumn.java
@@ -0,0 +1,196 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import net.hydromatic.linq4j.Enumerator;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A table converted once into typed columns.
+ *
+ * <p>Selectors, patterns and type conversion run a single time per page;
+ * enumerations then read straight from the {@link WebColumn}s. A store
+ * remembers the page it was built from, so its owner can tell when the page
+ * cache has fetched a new version and the store must be rebuilt.</p>
+ *
+ * <p>A store restored from a {@link WebSnapshot} has no page; it is never
+ * current, and serves until a fetched page replaces it.</p>
+ */
+class WebColumnStore {
+    private final WebPage source;
+    private final WebColumn[] columns;
+    private final int rowCount;
+
+    private WebColumnStore(WebPage source, WebColumn[] columns, int rowCount) {
+        this.source = source;
+        this.columns = columns;
+        this.rowCount = rowCount;
+    }
+
+    /** Reads and converts every row of a table. */
+    static WebColumnStore build(WebPage source, WebReader reader,
+        WebRowConverter converter) {
+        int width = converter.width();
+        int[] all = WebEnumerator.identityList(width);
+        WebColumn.Builder[] builders = new WebColumn.Builder[width];
+        for (int i = 0; i < width; i++) {
+            builders[i] = WebColumn.builder(converter.getFieldType(i));
+        }
+
+        int rowCount = 0;
+        WebStats.Tally tally = new WebStats.Tally();
+        WebReader.WebReaderIterator rows = reader.iterator();
+        try {
+            while (rows.hasNext()) {
+                Object[] row =
+                    (Object[]) converter.toRow(rows.next(), all, tally);
+                for (int i = 0; i < width; i++) {
+                    builders[i].add(row[i]);
+                }
+                rowCount++;
+            }
+        } finally {
+            tally.flush();
+            rows.close();
+        }
+
+        WebColumn[] columns = new WebColumn[width];
+        for (int i = 0; i < width; i++) {
+            columns[i] = builders[i].build();
+        }
+        return new WebColumnStore(source, columns, rowCount);
+    }
+
+    /** Creates a store of columns read back from a snapshot. */
+    static WebColumnStore restore(WebColumn[] columns, int rowCount) {
+        return new WebColumnStore(null, columns, rowCount);
+    }
+
+    /** Whether this store was built from the current version of a page. */
+    boolean isCurrent(WebPage page) {
+        return this.source != null && this.source.sameContent(page);
+    }
+
+    /** Whether this store came from a snapshot rather than a page. */
+    boolean isRestored() {
+        return this.source == null;
+    }
+
+    /** The page the store was built from; null if restored. */
+    WebPage getSource() {
+        return this.source;
+    }
+
+    int getRowCount() {
+        return this.rowCount;
+    }
+
+    int getColumnCount() {
+        return this.columns.length;
+    }
+
+    WebColumn getColumn(int i) {
+        return this.columns[i];
+    }
+
+    /** Number of distinct non-null values in a column. */
+    int getDistinctCount(int i) {
+        return this.columns[i].distinctCount();
+    }
+
+    /** Single columns whose values turned out to be unique. */
+    List<BitSet> getUniqueKeys() {
+        List<BitSet> keys = new ArrayList<BitSet>();
+        for (int i = 0; i < this.columns.length; i++) {
+            if (this.columns[i].isUnique()) {
+                BitSet key = new BitSet();
+                key.set(i);
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    /** Returns an enumerator over a projection of the columns. */
+    Enumerator<Object> enumerator(int[] fields) {
+        return enumerator(fields, new WebFilter[0]);
+    }
+
+    /** Returns an enumerator over a projection of the rows that pass some
+     * filters. */
+    Enumerator<Object> enumerator(int[] fields, WebFilter[] filters) {
+        return WebBatch.rows(batches(fields, filters, WebBatch.DEFAULT_SIZE));
+    }
+
+    /** Returns batches of a projection of the rows that pass some filters.
+     * Batches share the store's columns; filters, bound to their columns once
+     * for the scan, narrow each batch's selection. */
+    Enumerator<WebBatch> batches(int[] fields, WebFilter[] filters,
+        final int size) {
+        final WebColumn[] projected = new WebColumn[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            projected[i] = this.columns[fields[i]];
+        }
+        final WebColumn.Selector[] selectors = new WebColumn.Selector[filters.length];
+        for (int i = 0; i < filters.length; i++) {
+            selectors[i] = this.columns[filters[i].getField()].selector(filters[i]);
+        }
+        return new Enumerator<WebBatch>() {
+            private int start = 0;
+            private WebBatch current;
+
+            public WebBatch current() {
+                return this.current;
+            }
+
+            public boolean moveNext() {
+                while (this.start < rowCount) {
+                    int end = Math.min(rowCount, this.start + size);
+                    int[] sel = new int[end - this.start];
+                    for (int i = 0; i < sel.length; i++) {
+                        sel[i] = this.start + i;
+                    }
+                    this.start = end;
+                    int n = sel.length;
+                    for (WebColumn.Selector selector : selectors) {
+                        n = selector.filter(sel, n);
+                    }
+                    if (n > 0) {
+                        this.current = new WebBatch(projected, sel, n);
+                        return true;
+                    }
+                }
+                this.current = null;
+                return false;
+            }
+
+            public void reset() {
+                this.start = 0;
+                this.current = null;
+            }
+
+            public void close() {
+            }
+        };
+    }
+}
+
+// End WebColumnStore.java
@@ -0,0 +1,160 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import com.joestelmach.natty.DateGroup;
+import com.joestelmach.natty.Parser;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Parses dates, times and timestamps out of table cells.
+ *
+ * <p>A parser tries a list of <code>SimpleDateFormat</code> patterns, each of
+ * which must match the whole cell. The patterns come from the field's
+ * <code>format</code> option (a pattern, or a list of them); DATE fields
+ * without one try a few common patterns. Once a pattern has matched, it is
+ * tried first for the rest of the column. Cells that no pattern matches
+ * are given to natty's natural-language parser, which is much slower; a
+ * cell natty cannot read either is null.</p>
+ *
+ * <p>Parsers may be shared between threads: each thread gets its own
+ * formatters, and the single natty parser is used by one thread at a
+ * time.</p>
+ */
+class WebDateParser {
+    /** Patterns tried for DATE fields that have no <code>format</code>. */
+    static final String[] DATE_FORMATS = {
+        "yyyy-MM-dd",
+        "MMMM d, yyyy",
+        "MMM d, yyyy",
+        "d MMMM yyyy",
+        "d MMM yyyy",
+        "MM/dd/yyyy",
+        "yyyy/MM/dd"
+    };
+
+    private static final String[] NO_FORMATS = new String[0];
+
+    private static Parser natty;
+
+    private final String[] formats;
+    private final Locale locale;
+    private final ThreadLocal<SimpleDateFormat[]> formatters =
+        new ThreadLocal<SimpleDateFormat[]>() {
+            protected SimpleDateFormat[] initialValue() {
+                SimpleDateFormat[] formatters = new SimpleDateFormat[formats.length];
+                for (int i = 0; i < formats.length; i++) {
+                    formatters[i] = new SimpleDateFormat(formats[i], locale);
+                    formatters[i].setLenient(false);
+                }
+                return formatters;
+            }
+        };
+
+    // index of the pattern that last matched, or -1
+    private volatile int learned = -1;
+
+    WebDateParser(String[] formats, Locale locale) {
+        this.formats = formats;
+        this.locale = locale;
+    }
+
+    /**
+     * Creates a parser for a field, given its <code>format</code> option (null,
+     * a pattern or a list of patterns) and <code>locale</code> option (null
+     * means {@link WebNumberParser#DEFAULT_LOCALE}).
+     */
+    static WebDateParser of(Object format, String locale, WebFieldType type)
+        throws WebReaderException {
+        String[] formats;
+        if (format == null) {
+            formats = (type == WebFieldType.DATE) ? DATE_FORMATS : NO_FORMATS;
+        } else if (format instanceof String) {
+            formats = new String[] {(String) format};
+        } else if (format instanceof List) {
+            List list = (List) format;
+            formats = new String[list.size()];
+            for (int i = 0; i < formats.length; i++) {
+                if (!(list.get(i) instanceof String)) {
+                    throw new WebReaderException("bad format: '" + list.get(i)
+                        + "' is not a pattern string");
+                }
+                formats[i] = (String) list.get(i);
+            }
+        } else {
+            throw new WebReaderException("bad date format: '" + format + "'");
+        }
+        for (String f : formats) {
+            try {
+                new SimpleDateFormat(f);
+            } catch (IllegalArgumentException e) {
+                throw new WebReaderException("bad date format: '" + f + "'", e);
+            }
+        }
+        return new WebDateParser(formats, WebNumberParser.toLocale(locale));
+    }
+
+    /** Parses a cell, returning null if it does not hold a date. */
+    Date parse(String string) {
+        final SimpleDateFormat[] formatters = this.formatters.get();
+        final int first = this.learned;
+        if (first >= 0) {
+            Date date = parse(formatters[first], string);
+            if (date != null) {
+                return date;
+            }
+        }
+        for (int i = 0; i < formatters.length; i++) {
+            if (i != first) {
+                Date date = parse(formatters[i], string);
+                if (date != null) {
+                    this.learned = i;
+                    return date;
+                }
+            }
+        }
+        return parseNatural(string);
+    }
+
+    // the pattern must match the whole cell
+    private static Date parse(SimpleDateFormat formatter, String string) {
+        ParsePosition position = new ParsePosition(0);
+        Date date = formatter.parse(string, position);
+        return (position.getIndex() == string.length()) ? date : null;
+    }
+
+    // natty is slow to create and not known to be thread-safe; share one
+    private static synchronized Date parseNatural(String string) {
+        if (natty == null) {
+            natty = new Parser();
+        }
+        List<DateGroup> groups = natty.parse(string);
+        if (groups.isEmpty() || groups.get(0).getDates().isEmpty()) {
+            return null;
+        }
+        return groups.get(0).getDates().get(0);
+    }
+}
+
+// End WebDateParser.java
@@ -0,0 +1,173 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.Properties;
+
+/**
+ * Directory of fetched pages that survives JVM restarts.
+ *
+ * <p>Each page is kept as two files named after a digest of its URL: the
+ * body, and a properties file holding the URL, charset, fetch time and the
+ * ETag / Last-Modified validators used to revalidate it. Only pages that
+ * carry a validator are worth keeping, since anything else would have to be
+ * fetched in full anyway.</p>
+ */
+class WebDiskCache {
+    private static final String BODY = ".body";
+    private static final String META = ".properties";
+
+    private final File directory;
+
+    WebDiskCache(File directory) throws WebReaderException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new WebReaderException("Cannot create cache directory "
+                + directory);
+        }
+        this.directory = directory;
+    }
+
+    File getDirectory() {
+        return this.directory;
+    }
+
+    /** Returns the stored copy of a page, or null if there is none. */
+    WebPage load(String url, boolean keepDocument) {
+        Properties properties = meta(url);
+        if (properties == null) {
+            return null;
+        }
+        try {
+            byte[] content = WebPageCache.readFully(
+                new FileInputStream(new File(this.directory, key(url) + BODY)));
+            return new WebPage(url, content, properties.getProperty("charset"),
+                Long.parseLong(properties.getProperty("fetchTime", "0")),
+                properties.getProperty("etag"),
+                properties.getProperty("lastModified"), keepDocument);
+        } catch (IOException e) {
+            return null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** Returns the stored properties of a page (charset, fetch time and
+     * validators) without reading its body, or null if there is none. */
+    Properties meta(String url) {
+        String key = key(url);
+        File meta = new File(this.directory, key + META);
+        File body = new File(this.directory, key + BODY);
+        if (!meta.isFile() || !body.isFile()) {
+            return null;
+        }
+        try {
+            Properties properties = new Properties();
+            InputStream in = new FileInputStream(meta);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+            if (!url.equals(properties.getProperty("url"))) {
+                // digest collision, or a stale file; treat as a miss
+                return null;
+            }
+            return properties;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** Stores a page, if it can be revalidated later. */
+    void store(WebPage page) {
+        if (page.getEtag() == null && page.getLastModified() == null) {
+            return;
+        }
+        String key = key(page.getUrl());
+        Properties properties = new Properties();
+        properties.setProperty("url", page.getUrl());
+        properties.setProperty("fetchTime", String.valueOf(page.getFetchTime()));
+        if (page.getCharset() != null) {
+            properties.setProperty("charset", page.getCharset());
+        }
+        if (page.getEtag() != null) {
+            properties.setProperty("etag", page.getEtag());
+        }
+        if (page.getLastModified() != null) {
+            properties.setProperty("lastModified", page.getLastModified());
+        }
+        try {
+            // body first, so a readable properties file implies a whole body
+            write(new File(this.directory, key + BODY), page.getContent(), null);
+            write(new File(this.directory, key + META), null, properties);
+        } catch (IOException e) {
+            // the cache is an optimization; a failed write costs a fetch later
+        }
+    }
+
+    // write via a temporary file, then rename into place
+    private void write(File file, byte[] content, Properties properties)
+        throws IOException {
+        File tmp = File.createTempFile(file.getName(), ".tmp", this.directory);
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            if (content != null) {
+                out.write(content);
+            } else {
+                properties.store(out, null);
+            }
+        } finally {
+            out.close();
+        }
+        file.delete();
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Cannot rename " + tmp + " to " + file);
+        }
+    }
+
+    // file name for a URL (or any other string)
+    static String key(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(url.getBytes("UTF-8"));
+            StringBuilder buf = new StringBuilder();
+            for (byte b : hash) {
+                buf.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+            }
+            return buf.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
+
+// End WebDiskCache.java
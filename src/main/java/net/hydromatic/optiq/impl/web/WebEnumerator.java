@@ -25,7 +25,11 @@ import org.jsoup.select.Elements;
 
 import java.io.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 
 /*
  * WebEnumerator - wraps WebReader and WebRowConverter, enumerates tr Elements as table rows
@@ -35,12 +39,34 @@ import java.util.Iterator;
  */
 class WebEnumerator implements Enumerator<Object> {
 
+    /** Most rows kept for replay once {@link #reset()} has been called;
+     * beyond this, each reset re-reads the table. */
+    static final int BUFFER_LIMIT = 100000;
+
     private Iterator<Elements> iterator = null;
+    // where a new iterator comes from on reset; may be null
+    private Iterable<Elements> source = null;
     private WebRowConverter converter = null;;
     private int[] fields;
     private RelDataType rowType;
     private Object current;
 
+    // pushed-down filters, cheapest field first, and their converted values
+    private WebFilter[] filters = new WebFilter[0];
+    private Object[] filterValues;
+    // for each projected field, the filter that already converted it, or -1
+    private int[] filtered;
+
+    // rows returned since the first reset, replayed after later resets;
+    // null until a reset, and again once over the limit
+    private List<Object> buffer = null;
+    private int position = 0;
+    // false once the buffer overflowed, or if the rows are read only once
+    private boolean replay = true;
+
+    // cells converted since the last flush
+    private final WebStats.Tally tally = new WebStats.Tally();
+
     public WebEnumerator(Iterator<Elements> iterator, WebRowConverter converter) {
         this.iterator = iterator;
         this.converter = converter;
@@ -53,6 +79,43 @@ class WebEnumerator implements Enumerator<Object> {
         this.fields = fields;
     }
 
+    public WebEnumerator(Iterator<Elements> iterator,  WebRowConverter converter, int[] fields,
+        WebFilter[] filters) {
+        this(iterator, converter, fields);
+        final WebRowConverter c = converter;
+        this.filters = filters.clone();
+        Arrays.sort(this.filters, new Comparator<WebFilter>() {
+            public int compare(WebFilter f1, WebFilter f2) {
+                return c.cost(f1.getField()) - c.cost(f2.getField());
+            }
+        });
+        this.filterValues = new Object[this.filters.length];
+        this.filtered = new int[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            this.filtered[i] = -1;
+            for (int j = 0; j < this.filters.length; j++) {
+                if (this.filters[j].getField() == fields[i]) {
+                    this.filtered[i] = j;
+                }
+            }
+        }
+    }
+
+    public WebEnumerator(Iterable<Elements> source, WebRowConverter converter, int[] fields,
+        WebFilter[] filters) {
+        this(source.iterator(), converter, fields, filters);
+        this.source = source;
+    }
+
+    /** Stops keeping rows for {@link #reset()}, for a caller that reads the
+     * rows once; returns this enumerator. */
+    WebEnumerator withoutReplay() {
+        this.buffer = null;
+        this.replay = false;
+        this.source = null;
+        return this;
+    }
+
     public Object current() {
         if (current == null) {
             this.moveNext();
@@ -61,27 +124,96 @@ class WebEnumerator implements Enumerator<Object> {
     }
 
     public boolean moveNext() {
+        if (this.buffer != null && this.position < this.buffer.size()) {
+            current = this.buffer.get(this.position++);
+            return true;
+        }
         try {
-            if (this.iterator.hasNext()) {
+            while (this.iterator.hasNext()) {
                 final Elements row = this.iterator.next();
-                current = this.converter.toRow(row, this.fields);
-                return true;
-            } else {
-                current = null;
-                return false;
+                if (this.filters.length == 0) {
+                    current = this.converter.toRow(row, this.fields, this.tally);
+                    remember(current);
+                    return true;
+                }
+                if (accept(row)) {
+                    current = toRow(row);
+                    remember(current);
+                    return true;
+                }
             }
+            current = null;
+            this.tally.flush();
+            return false;
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
-    // required by linq4j Enumerator interface
+    // keep a returned row for replay, until the buffer is full
+    private void remember(Object row) {
+        if (this.buffer == null) {
+            return;
+        }
+        if (this.buffer.size() >= BUFFER_LIMIT) {
+            this.buffer = null;
+            this.replay = false;
+            return;
+        }
+        this.buffer.add(row);
+        this.position++;
+    }
+
+    // evaluate filters, converting only the fields they need
+    private boolean accept(Elements row) {
+        for (int i = 0; i < this.filters.length; i++) {
+            Object value = this.converter.convertField(row,
+                this.filters[i].getField(), this.tally);
+            if (!this.filters[i].accept(value)) {
+                return false;
+            }
+            this.filterValues[i] = value;
+        }
+        return true;
+    }
+
+    // convert an accepted row, reusing values converted by the filters
+    private Object toRow(Elements row) {
+        final Object[] objects = new Object[this.fields.length];
+        for (int i = 0; i < this.fields.length; i++) {
+            objects[i] = (this.filtered[i] >= 0)
+                ? this.filterValues[this.filtered[i]]
+                : this.converter.convertField(row, this.fields[i], this.tally);
+        }
+        return objects;
+    }
+
+    // required by linq4j Enumerator interface; the first reset re-reads the
+    // source, and the rows of that pass are kept so that later rescans (the
+    // inner side of a nested-loop join) come from memory; a scan that is
+    // never reset keeps no rows
     public void reset() {
-        throw new UnsupportedOperationException();
+        current = null;
+        if (this.buffer != null) {
+            // rows not read yet are still ahead of the iterator
+            this.position = 0;
+            return;
+        }
+        if (this.source == null) {
+            throw new UnsupportedOperationException();
+        }
+        close();
+        this.iterator = this.source.iterator();
+        this.buffer = this.replay ? new ArrayList<Object>() : null;
+        this.position = 0;
     }
 
     // required by linq4j Enumerator interface
     public void close() {
+        this.tally.flush();
+        if (this.iterator instanceof WebReader.WebReaderIterator) {
+            ((WebReader.WebReaderIterator) this.iterator).close();
+        }
     }
 
     /** Returns an array of integers {0, ..., n - 1}. */
@@ -0,0 +1,85 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import java.io.IOException;
+
+import java.net.URL;
+
+import java.util.Map;
+
+/**
+ * Fetches the body of a remote page.
+ *
+ * <p>{@link WebPageCache} calls the fetcher for every URL that is not a
+ * file and is not served from the cache. The default is
+ * {@link HttpWebFetcher}; another implementation, e.g. one that goes through
+ * a proxy or serves canned pages in tests, is named by the <code>class</code>
+ * entry of the <code>fetch</code> schema operand and needs a public no-argument
+ * constructor. Implementations must be safe for concurrent use.</p>
+ */
+public interface WebFetcher {
+
+    /**
+     * Fetches a URL. The request carries the given headers (conditional
+     * request validators, for instance). Any HTTP status is returned rather
+     * than thrown; only a failure to talk to the server is an exception.
+     */
+    Response fetch(URL url, Map<String, String> headers) throws IOException;
+
+    /** What came back for a URL. */
+    class Response {
+        private final int status;
+        private final byte[] body;
+        private final String charset;
+        private final String etag;
+        private final String lastModified;
+
+        /** Creates a response; charset and validators may be null. */
+        public Response(int status, byte[] body, String charset, String etag,
+            String lastModified) {
+            this.status = status;
+            this.body = body;
+            this.charset = charset;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        public int getStatus() {
+            return this.status;
+        }
+
+        public byte[] getBody() {
+            return this.body;
+        }
+
+        public String getCharset() {
+            return this.charset;
+        }
+
+        public String getEtag() {
+            return this.etag;
+        }
+
+        public String getLastModified() {
+            return this.lastModified;
+        }
+    }
+}
+
+// End WebFetcher.java
@@ -0,0 +1,343 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import java.math.BigDecimal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A simple predicate on one field of a web table, evaluated by the scan
+ * before the rest of the row is converted.
+ *
+ * <p>Filters are created by {@link WebPushFilterOntoTableRule} and travel
+ * from the plan to the generated code as a flat array of strings (see
+ * {@link #encode(List)}), since generated code can only hold constants.</p>
+ *
+ * <p>As in a SQL WHERE clause, a null cell never satisfies a filter.</p>
+ */
+class WebFilter {
+
+    /** Comparison performed by a filter. */
+    enum Op {
+        EQUALS("="),
+        NOT_EQUALS("<>"),
+        LESS_THAN("<"),
+        LESS_THAN_OR_EQUAL("<="),
+        GREATER_THAN(">"),
+        GREATER_THAN_OR_EQUAL(">="),
+        LIKE("LIKE"),
+        IN("IN");
+
+        final String symbol;
+
+        Op(String symbol) {
+            this.symbol = symbol;
+        }
+
+        /** The operator to use when the operands are swapped. */
+        Op reverse() {
+            switch (this) {
+            case LESS_THAN:
+                return GREATER_THAN;
+            case LESS_THAN_OR_EQUAL:
+                return GREATER_THAN_OR_EQUAL;
+            case GREATER_THAN:
+                return LESS_THAN;
+            case GREATER_THAN_OR_EQUAL:
+                return LESS_THAN_OR_EQUAL;
+            default:
+                return this;
+            }
+        }
+    }
+
+    private final int field;
+    private final Op op;
+    private final Object[] values;
+    private final Pattern pattern;
+    // each value as a long if it is an integral number that fits, else null;
+    // integers beyond 2^53 do not survive a conversion to double
+    private final Long[] longs;
+
+    /** Creates a filter; values are Strings, Numbers or Booleans. */
+    WebFilter(int field, Op op, Object[] values) {
+        this.field = field;
+        this.op = op;
+        this.values = values;
+        this.pattern = (op == Op.LIKE) ? likePattern((String) values[0]) : null;
+        this.longs = new Long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            this.longs[i] = exactLong(values[i]);
+        }
+    }
+
+    int getField() {
+        return this.field;
+    }
+
+    Op getOp() {
+        return this.op;
+    }
+
+    Object[] getValues() {
+        return this.values;
+    }
+
+    /** Whether a converted cell value satisfies this filter. */
+    boolean accept(Object value) {
+        if (value == null) {
+            return false;
+        }
+        switch (this.op) {
+        case LIKE:
+            return this.pattern.matcher(value.toString()).matches();
+        case IN:
+            for (int i = 0; i < this.values.length; i++) {
+                if (compare(value, i) == 0) {
+                    return true;
+                }
+            }
+            return false;
+        default:
+            return holds(compare(value, 0));
+        }
+    }
+
+    /** Whether every literal is a number, so that a numeric cell can be
+     * tested with {@link #accept(double)}. */
+    boolean isNumeric() {
+        if (this.op == Op.LIKE) {
+            return false;
+        }
+        for (Object v : this.values) {
+            if (!(v instanceof Number)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Same as {@link #accept(Object)} for a non-null numeric cell, without
+     * boxing it; only valid if {@link #isNumeric()}. */
+    boolean accept(double value) {
+        if (this.op == Op.IN) {
+            for (Object v : this.values) {
+                if (Double.compare(value, ((Number) v).doubleValue()) == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return holds(
+            Double.compare(value, ((Number) this.values[0]).doubleValue()));
+    }
+
+    /** Same as {@link #accept(double)} for a LONG cell, comparing exactly
+     * with integral literals; only valid if {@link #isNumeric()}. */
+    boolean accept(long value) {
+        if (this.op == Op.IN) {
+            for (int i = 0; i < this.values.length; i++) {
+                if (compare(value, i) == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return holds(compare(value, 0));
+    }
+
+    // whether the result of comparing a cell with the (first) literal
+    // satisfies the operator
+    private boolean holds(int c) {
+        switch (this.op) {
+        case EQUALS:
+        case IN:
+            return c == 0;
+        case NOT_EQUALS:
+            return c != 0;
+        case LESS_THAN:
+            return c < 0;
+        case LESS_THAN_OR_EQUAL:
+            return c <= 0;
+        case GREATER_THAN:
+            return c > 0;
+        default:
+            return c >= 0;
+        }
+    }
+
+    private int compare(Object value, int i) {
+        Object literal = this.values[i];
+        if (value instanceof Number && literal instanceof Number) {
+            Long exact = exactLong(value);
+            if (exact != null && this.longs[i] != null) {
+                return compare(exact.longValue(), i);
+            }
+            return Double.compare(((Number) value).doubleValue(),
+                ((Number) literal).doubleValue());
+        }
+        if (value instanceof Boolean && literal instanceof Boolean) {
+            return ((Boolean) value).compareTo((Boolean) literal);
+        }
+        return value.toString().compareTo(literal.toString());
+    }
+
+    private int compare(long value, int i) {
+        Long literal = this.longs[i];
+        if (literal == null) {
+            return Double.compare((double) value,
+                ((Number) this.values[i]).doubleValue());
+        }
+        long l = literal.longValue();
+        return (value < l) ? -1 : ((value == l) ? 0 : 1);
+    }
+
+    // an integral number as a long, or null if it has a fraction, does not
+    // fit, or is not a number
+    private static Long exactLong(Object value) {
+        if (value instanceof Long || value instanceof Integer
+            || value instanceof Short || value instanceof Byte) {
+            return Long.valueOf(((Number) value).longValue());
+        }
+        if (value instanceof BigDecimal) {
+            try {
+                return Long.valueOf(((BigDecimal) value).longValueExact());
+            } catch (ArithmeticException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    // translate a SQL LIKE pattern (no escape character) to a regex
+    private static Pattern likePattern(String like) {
+        StringBuilder buf = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < like.length(); i++) {
+            char c = like.charAt(i);
+            if (c == '%' || c == '_') {
+                if (literal.length() > 0) {
+                    buf.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                buf.append((c == '%') ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            buf.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(buf.toString(), Pattern.DOTALL);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof WebFilter)) {
+            return false;
+        }
+        WebFilter that = (WebFilter) o;
+        return this.field == that.field && this.op == that.op
+            && Arrays.equals(this.values, that.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return (this.field * 31 + this.op.hashCode()) * 31
+            + Arrays.hashCode(this.values);
+    }
+
+    /** Renders the filter for EXPLAIN, e.g. <code>$3 = 'California'</code>. */
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder("$").append(this.field)
+            .append(' ').append(this.op.symbol).append(' ');
+        if (this.op == Op.IN) {
+            buf.append('(');
+        }
+        for (int i = 0; i < this.values.length; i++) {
+            if (i > 0) {
+                buf.append(", ");
+            }
+            Object v = this.values[i];
+            if (v instanceof String) {
+                buf.append('\'').append(v).append('\'');
+            } else {
+                buf.append(v);
+            }
+        }
+        if (this.op == Op.IN) {
+            buf.append(')');
+        }
+        return buf.toString();
+    }
+
+    /** Flattens filters to strings: field, op, value count, then each value
+     * tagged with its type. */
+    static String[] encode(List<WebFilter> filters) {
+        List<String> list = new ArrayList<String>();
+        for (WebFilter filter : filters) {
+            list.add(String.valueOf(filter.field));
+            list.add(filter.op.name());
+            list.add(String.valueOf(filter.values.length));
+            for (Object v : filter.values) {
+                if (v instanceof Number) {
+                    list.add("n" + v);
+                } else if (v instanceof Boolean) {
+                    list.add("b" + v);
+                } else {
+                    list.add("s" + v);
+                }
+            }
+        }
+        return list.toArray(new String[list.size()]);
+    }
+
+    /** Inverse of {@link #encode(List)}. */
+    static WebFilter[] decode(String[] strings) {
+        List<WebFilter> filters = new ArrayList<WebFilter>();
+        int i = 0;
+        while (i < strings.length) {
+            int field = Integer.parseInt(strings[i++]);
+            Op op = Op.valueOf(strings[i++]);
+            Object[] values = new Object[Integer.parseInt(strings[i++])];
+            for (int j = 0; j < values.length; j++) {
+                String s = strings[i++];
+                String v = s.substring(1);
+                switch (s.charAt(0)) {
+                case 'n':
+                    values[j] = new BigDecimal(v);
+                    break;
+                case 'b':
+                    values[j] = Boolean.valueOf(v);
+                    break;
+                default:
+                    values[j] = v;
+                }
+            }
+            filters.add(new WebFilter(field, op, values));
+        }
+        return filters.toArray(new WebFilter[filters.size()]);
+    }
+}
+
+// End WebFilter.java
@@ -0,0 +1,156 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Directory of what was learned about tables in earlier runs: the headings
+ * their row types were inferred from, and their row counts.
+ *
+ * <p>A table seeded from this cache plans queries without fetching its page;
+ * the page is fetched when rows are first read, and if its headings have
+ * changed meanwhile the scan fails and the entry is replaced. Each table is
+ * kept as a properties file named after a digest of its URL, selector and
+ * index.</p>
+ */
+class WebMetadataCache {
+    private static final String META = ".table";
+
+    private final File directory;
+
+    WebMetadataCache(File directory) throws WebReaderException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new WebReaderException("Cannot create metadata directory "
+                + directory);
+        }
+        this.directory = directory;
+    }
+
+    /** Creates a cache from a schema operand such as
+     * <code>{directory: "/var/cache/optiq-web/metadata"}</code>, or returns
+     * null if there is none. */
+    static WebMetadataCache of(Map<String, Object> config)
+        throws WebReaderException {
+        if (config == null) {
+            return null;
+        }
+        String directory = (String) config.get("directory");
+        if (directory == null) {
+            throw new WebReaderException("bad metadata: no directory");
+        }
+        return new WebMetadataCache(new File(directory));
+    }
+
+    /** What is known about a table. */
+    static class Entry {
+        private final List<String> headings;
+        private final int rowCount;
+
+        Entry(List<String> headings, int rowCount) {
+            this.headings = headings;
+            this.rowCount = rowCount;
+        }
+
+        List<String> getHeadings() {
+            return this.headings;
+        }
+
+        /** Number of rows when last read; -1 if not known. */
+        int getRowCount() {
+            return this.rowCount;
+        }
+    }
+
+    /** Returns what is known about a table, or null if nothing is. */
+    Entry load(String table) {
+        File file = new File(this.directory, WebDiskCache.key(table) + META);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            Properties properties = new Properties();
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+            if (!table.equals(properties.getProperty("table"))) {
+                // digest collision; treat as unknown
+                return null;
+            }
+            int count = Integer.parseInt(properties.getProperty("headings"));
+            List<String> headings = new ArrayList<String>();
+            for (int i = 0; i < count; i++) {
+                String heading = properties.getProperty("heading." + i);
+                if (heading == null) {
+                    return null;
+                }
+                headings.add(heading);
+            }
+            return new Entry(headings,
+                Integer.parseInt(properties.getProperty("rowCount", "-1")));
+        } catch (IOException e) {
+            return null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** Records a table's headings and row count (-1 if not known). */
+    void store(String table, List<String> headings, int rowCount) {
+        Properties properties = new Properties();
+        properties.setProperty("table", table);
+        properties.setProperty("time", String.valueOf(System.currentTimeMillis()));
+        properties.setProperty("rowCount", String.valueOf(rowCount));
+        properties.setProperty("headings", String.valueOf(headings.size()));
+        for (int i = 0; i < headings.size(); i++) {
+            properties.setProperty("heading." + i, headings.get(i));
+        }
+        File file = new File(this.directory, WebDiskCache.key(table) + META);
+        try {
+            // write via a temporary file, then rename into place
+            File tmp = File.createTempFile(file.getName(), ".tmp", this.directory);
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                properties.store(out, null);
+            } finally {
+                out.close();
+            }
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            // the cache is an optimization; a failed write costs a fetch later
+        }
+    }
+}
+
+// End WebMetadataCache.java
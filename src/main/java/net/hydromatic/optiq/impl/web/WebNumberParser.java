@@ -0,0 +1,291 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import java.text.DecimalFormatSymbols;
+
+import java.util.Locale;
+
+/**
+ * Parses numbers out of table cells, without the formatter, parse position
+ * and intermediate objects that <code>NumberFormat.parse</code> costs per
+ * cell.
+ *
+ * <p>By default a parser accepts what <code>NumberFormat</code> would for its
+ * locale: an optional minus sign, digits with grouping separators, a
+ * fraction (except for SHORT and INT, which like
+ * <code>NumberFormat.getIntegerInstance()</code> stop at the decimal
+ * separator) and an exponent; anything after the number, such as a footnote
+ * marker or a percent sign, is ignored, and a cell that does not start with
+ * a number is null. A <em>lenient</em> parser also skips leading currency
+ * symbols and other text, reads "(123)" as negative, and accepts the Unicode
+ * minus sign and any space as a grouping separator where the locale groups
+ * with spaces.</p>
+ *
+ * <p>Parsers are immutable, and may be shared between threads.</p>
+ */
+class WebNumberParser {
+    // exactly representable powers of ten
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // exponent of the largest power of ten that fits in a long
+    private static final int MAX_POW10_LONG = 18;
+
+    private static final long MAX_EXACT = 1L << 53;
+
+    /** Locale of fields that have no <code>locale</code> option, for numbers
+     * and dates alike; not the JVM's, so that a table reads the same
+     * everywhere. */
+    static final Locale DEFAULT_LOCALE = Locale.US;
+
+    private final char grouping;
+    private final char decimal;
+    private final char minus;
+    private final boolean lenient;
+
+    WebNumberParser(Locale locale, boolean lenient) {
+        DecimalFormatSymbols symbols = new DecimalFormatSymbols(locale);
+        this.grouping = symbols.getGroupingSeparator();
+        this.decimal = symbols.getDecimalSeparator();
+        this.minus = symbols.getMinusSign();
+        this.lenient = lenient;
+    }
+
+    /** Creates a parser for a locale such as "de_DE" or "fr-CH", or for
+     * {@link #DEFAULT_LOCALE} if null. */
+    static WebNumberParser of(String locale, boolean lenient) {
+        return new WebNumberParser(toLocale(locale), lenient);
+    }
+
+    /** Converts a locale name such as "de_DE" or "fr-CH" to a Locale; null
+     * means {@link #DEFAULT_LOCALE}. */
+    static Locale toLocale(String locale) {
+        if (locale == null) {
+            return DEFAULT_LOCALE;
+        }
+        String[] parts = locale.split("[_-]");
+        return (parts.length == 1) ? new Locale(parts[0])
+            : (parts.length == 2) ? new Locale(parts[0], parts[1])
+            : new Locale(parts[0], parts[1], parts[2]);
+    }
+
+    /**
+     * Parses a cell as a number of the given type (SHORT, INT, LONG, FLOAT or
+     * DOUBLE), returning null if it does not hold one.
+     */
+    Object parse(CharSequence s, WebFieldType type) {
+        final int n = s.length();
+        final boolean integerOnly =
+            type == WebFieldType.SHORT || type == WebFieldType.INT;
+        int i = 0;
+        boolean negative = false;
+
+        if (this.lenient) {
+            // skip currency symbols, labels and opening parentheses
+            while (i < n && !isNumberStart(s.charAt(i))) {
+                if (s.charAt(i) == '(') {
+                    negative = true;
+                }
+                i++;
+            }
+        }
+        if (i < n && isMinus(s.charAt(i))) {
+            negative = !negative;
+            i++;
+        } else if (this.lenient && i < n && s.charAt(i) == '+') {
+            i++;
+        }
+        if (this.lenient) {
+            // "-$5"
+            while (i < n && Character.getType(s.charAt(i)) == Character.CURRENCY_SYMBOL) {
+                i++;
+            }
+        }
+
+        // significant digits go to the mantissa while it can hold them, the
+        // rest to the scale; as in Long.parseLong, the mantissa is negated so
+        // that the magnitude of Long.MIN_VALUE fits
+        long mantissa = 0;
+        boolean full = false;
+        int scale = 0;
+        boolean sawDigit = false;
+
+        // integer part
+        while (i < n) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                sawDigit = true;
+                full = full || mantissa < (Long.MIN_VALUE + (c - '0')) / 10;
+                if (!full) {
+                    mantissa = mantissa * 10 - (c - '0');
+                } else {
+                    scale++;
+                }
+                i++;
+            } else if (isGrouping(c)) {
+                // separators count only if more of the number follows
+                int j = i + 1;
+                while (j < n && isGrouping(s.charAt(j))) {
+                    j++;
+                }
+                if (j == n || !(isDigit(s.charAt(j)) || s.charAt(j) == this.decimal
+                    || s.charAt(j) == 'E')) {
+                    break;
+                }
+                i = j;
+            } else {
+                break;
+            }
+        }
+
+        // fraction
+        if (!integerOnly && i < n && s.charAt(i) == this.decimal) {
+            i++;
+            while (i < n && isDigit(s.charAt(i))) {
+                sawDigit = true;
+                int d = s.charAt(i) - '0';
+                full = full || mantissa < (Long.MIN_VALUE + d) / 10;
+                if (!full) {
+                    mantissa = mantissa * 10 - d;
+                    scale--;
+                }
+                i++;
+            }
+        }
+        if (!sawDigit) {
+            return null;
+        }
+
+        // exponent; ignored unless digits follow
+        if (i < n && s.charAt(i) == 'E') {
+            int j = i + 1;
+            boolean negativeExponent = false;
+            if (j < n && isMinus(s.charAt(j))) {
+                negativeExponent = true;
+                j++;
+            } else if (this.lenient && j < n && s.charAt(j) == '+') {
+                j++;
+            }
+            int exponent = 0;
+            boolean sawExponent = false;
+            while (j < n && isDigit(s.charAt(j))) {
+                sawExponent = true;
+                if (exponent < 100000) {
+                    exponent = exponent * 10 + (s.charAt(j) - '0');
+                }
+                j++;
+            }
+            if (sawExponent) {
+                scale += negativeExponent ? -exponent : exponent;
+            }
+        }
+
+        switch (type) {
+        case SHORT:
+        case INT:
+        case LONG:
+            if (!fitsLong(mantissa, scale, negative)) {
+                // NumberFormat gives a Double, which saturates on conversion
+                double big = toDouble(mantissa, scale, negative);
+                if (type == WebFieldType.SHORT) {
+                    return Short.valueOf((short) (int) big);
+                }
+                if (type == WebFieldType.INT) {
+                    return Integer.valueOf((int) big);
+                }
+                return Long.valueOf((long) big);
+            }
+            long value = toLong(mantissa, scale, negative);
+            if (type == WebFieldType.SHORT) {
+                return Short.valueOf((short) value);
+            }
+            if (type == WebFieldType.INT) {
+                return Integer.valueOf((int) value);
+            }
+            return Long.valueOf(value);
+        case FLOAT:
+            return Float.valueOf((float) toDouble(mantissa, scale, negative));
+        default:
+            return Double.valueOf(toDouble(mantissa, scale, negative));
+        }
+    }
+
+    private boolean isMinus(char c) {
+        return c == this.minus || (this.lenient && (c == '-' || c == '\u2212'));
+    }
+
+    private boolean isGrouping(char c) {
+        return c == this.grouping
+            || (this.lenient && Character.isSpaceChar(this.grouping)
+                && Character.isSpaceChar(c));
+    }
+
+    private boolean isNumberStart(char c) {
+        return isDigit(c) || isMinus(c) || c == '+' || c == this.decimal;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // whether the (negated) mantissa times ten to the scale fits in a long
+    // once its sign is applied
+    private static boolean fitsLong(long mantissa, int scale, boolean negative) {
+        long value = mantissa;
+        for (int k = 0; k < scale; k++) {
+            if (value < Long.MIN_VALUE / 10) {
+                return false;
+            }
+            value *= 10;
+        }
+        return negative || value != Long.MIN_VALUE;
+    }
+
+    // truncates toward zero, as Number.longValue() does
+    private static long toLong(long mantissa, int scale, boolean negative) {
+        long value = mantissa;
+        if (scale < 0) {
+            value = (scale < -MAX_POW10_LONG) ? 0 : value / (long) POW10[-scale];
+        } else {
+            for (int k = 0; k < scale; k++) {
+                value *= 10;
+            }
+        }
+        return negative ? value : -value;
+    }
+
+    private static double toDouble(long mantissa, int scale, boolean negative) {
+        double value;
+        if (mantissa == 0) {
+            value = 0d;
+        } else if (mantissa > -MAX_EXACT && scale >= -22 && scale <= 22) {
+            // both operands are exact, so the result is correctly rounded
+            value = (scale < 0) ? -mantissa / POW10[-scale]
+                : -mantissa * POW10[scale];
+        } else {
+            // rare: long mantissas and large exponents
+            value = -Double.parseDouble(mantissa + "E" + scale);
+        }
+        return negative ? -value : value;
+    }
+}
+
+// End WebNumberParser.java
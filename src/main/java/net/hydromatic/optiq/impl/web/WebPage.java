@@ -0,0 +1,148 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import org.jsoup.Jsoup;
+
+import org.jsoup.nodes.Document;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * A fetched page: the raw bytes of a URL plus what is needed to decode them.
+ *
+ * <p>Pages are immutable and shared through {@link WebPageCache}; the parsed
+ * Jsoup document is built on first use and, if the cache is configured to
+ * keep documents, shared by every reader of the page.</p>
+ */
+class WebPage {
+    private static final String DEFAULT_CHARSET = "UTF-8";
+
+    private final String url;
+    private final byte[] content;
+    private final String charset;
+    private final long fetchTime;
+    private final String etag;
+    private final String lastModified;
+    private final boolean keepDocument;
+    private Document document;
+
+    WebPage(String url, byte[] content, String charset, long fetchTime,
+        String etag, String lastModified, boolean keepDocument) {
+        this.url = url;
+        this.content = content;
+        this.charset = charset;
+        this.fetchTime = fetchTime;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.keepDocument = keepDocument;
+    }
+
+    /** Returns a copy of this page, confirmed current at the given time. */
+    WebPage revalidated(long time) {
+        return new WebPage(this.url, this.content, this.charset, time,
+            this.etag, this.lastModified, this.keepDocument);
+    }
+
+    /** Whether two pages hold the same fetched body; a page revalidated by
+     * a 304 response shares the body of the copy it confirmed. */
+    boolean sameContent(WebPage other) {
+        return other != null && this.content == other.content;
+    }
+
+    String getUrl() {
+        return this.url;
+    }
+
+    long getFetchTime() {
+        return this.fetchTime;
+    }
+
+    int size() {
+        return this.content.length;
+    }
+
+    byte[] getContent() {
+        return this.content;
+    }
+
+    String getCharset() {
+        return this.charset;
+    }
+
+    /** Returns the ETag validator sent with the page, or null. */
+    String getEtag() {
+        return this.etag;
+    }
+
+    /** Returns the Last-Modified validator sent with the page, or null. */
+    String getLastModified() {
+        return this.lastModified;
+    }
+
+    /** Returns the parsed page. Callers must treat the document as read-only,
+     * since it may be shared with other readers. */
+    Document document() throws WebReaderException {
+        return document(null);
+    }
+
+    /** Same as {@link #document()}, recording a parse, if there is one, in a
+     * table's statistics. */
+    Document document(WebStats stats) throws WebReaderException {
+        if (!this.keepDocument) {
+            return parse(stats);
+        }
+        synchronized (this) {
+            if (this.document == null) {
+                this.document = parse(stats);
+            }
+            return this.document;
+        }
+    }
+
+    /** Returns a fresh character stream over the page. */
+    Reader reader() throws WebReaderException {
+        try {
+            return new InputStreamReader(new ByteArrayInputStream(this.content),
+                (this.charset == null) ? DEFAULT_CHARSET : this.charset);
+        } catch (UnsupportedEncodingException e) {
+            throw new WebReaderException("Cannot decode " + this.url, e);
+        }
+    }
+
+    private Document parse(WebStats stats) throws WebReaderException {
+        long start = System.nanoTime();
+        try {
+            // with no charset, Jsoup sniffs the BOM and meta tags
+            Document document = Jsoup.parse(new ByteArrayInputStream(this.content),
+                this.charset, this.url);
+            if (stats != null) {
+                stats.parsed(System.nanoTime() - start);
+            }
+            return document;
+        } catch (IOException e) {
+            throw new WebReaderException("Cannot parse " + this.url, e);
+        }
+    }
+}
+
+// End WebPage.java
@@ -0,0 +1,502 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import java.net.URL;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Process-wide cache of fetched pages, keyed by URL.
+ *
+ * <p>Every {@link WebReader} goes through this cache, so tables defined on
+ * the same URL - in one schema or across connections - share one fetch and,
+ * optionally, one parsed document. Entries expire after a time-to-live and
+ * the least recently used are evicted once the cached bytes exceed a limit.
+ * Concurrent requests for a URL that is not cached wait for a single
+ * fetch.</p>
+ *
+ * <p>With a <code>directory</code>, remote pages are also kept on disk
+ * (see {@link WebDiskCache}). A page that has expired in memory, or is
+ * missing from memory but present on disk, is revalidated with a conditional
+ * request, and a 304 response serves the copy we have without transferring
+ * the body again.</p>
+ *
+ * <p>Remote pages are fetched by a {@link WebFetcher}, by default an
+ * {@link HttpWebFetcher}; see {@link #configureFetcher(Map)}.</p>
+ *
+ * <p>Settings come from the <code>cache</code> entry of a schema operand:</p>
+ * <pre>
+ * cache: {ttl: 300000, maxBytes: 67108864, documents: true,
+ *     directory: "/var/cache/optiq-web"}
+ * </pre>
+ */
+class WebPageCache {
+    private static final long DEFAULT_TTL = 5 * 60 * 1000L;
+    private static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024L;
+    private static final String FILE_CHARSET = "UTF-8";
+
+    private static final WebPageCache INSTANCE = new WebPageCache();
+
+    private long ttl = DEFAULT_TTL;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private boolean keepDocuments = true;
+    private WebDiskCache diskCache;
+    private WebFetcher fetcher = new HttpWebFetcher();
+
+    // guarded by this
+    private final LinkedHashMap<String, WebPage> pages =
+        new LinkedHashMap<String, WebPage>(16, 0.75f, true);
+    private long bytes = 0;
+
+    private final ConcurrentMap<String, FutureTask<WebPage>> inFlight =
+        new ConcurrentHashMap<String, FutureTask<WebPage>>();
+
+    // package-private so that tests can use a private cache
+    WebPageCache() {
+    }
+
+    static WebPageCache instance() {
+        return INSTANCE;
+    }
+
+    /** Applies settings from a schema operand; absent settings are left
+     * unchanged. */
+    synchronized void configure(Map<String, Object> config)
+        throws WebReaderException {
+        if (config == null) {
+            return;
+        }
+        Number ttl = (Number) config.get("ttl");
+        if (ttl != null) {
+            this.ttl = ttl.longValue();
+        }
+        Number maxBytes = (Number) config.get("maxBytes");
+        if (maxBytes != null) {
+            this.maxBytes = maxBytes.longValue();
+        }
+        Boolean documents = (Boolean) config.get("documents");
+        if (documents != null) {
+            this.keepDocuments = documents.booleanValue();
+        }
+        String directory = (String) config.get("directory");
+        if (directory != null) {
+            this.diskCache = new WebDiskCache(new File(directory));
+        }
+        evict();
+    }
+
+    /** Applies a <code>fetch</code> operand: either the <code>class</code> of
+     * a {@link WebFetcher}, or settings for an {@link HttpWebFetcher}. A null
+     * operand leaves the fetcher unchanged. */
+    void configureFetcher(Map<String, Object> config) throws WebReaderException {
+        if (config == null) {
+            return;
+        }
+        String className = (String) config.get("class");
+        if (className == null) {
+            setFetcher(HttpWebFetcher.of(config));
+            return;
+        }
+        try {
+            setFetcher((WebFetcher) Class.forName(className).newInstance());
+        } catch (Exception e) {
+            throw new WebReaderException("bad fetcher class: '" + className + "'", e);
+        }
+    }
+
+    synchronized void setFetcher(WebFetcher fetcher) {
+        this.fetcher = fetcher;
+    }
+
+    /** Returns the page for a URL, fetching it if it is not cached or has
+     * expired. */
+    WebPage get(URL url) throws WebReaderException {
+        return get(url, 0L);
+    }
+
+    /** Returns the page for a URL. A page that has expired by no more than
+     * <code>maxStaleness</code> milliseconds is still returned, and fetched
+     * again in the background; an older one is fetched before returning. */
+    WebPage get(URL url, long maxStaleness) throws WebReaderException {
+        return get(url, maxStaleness, null);
+    }
+
+    /** Same as {@link #get(URL, long)}, recording hits, misses and fetches in
+     * a table's statistics. */
+    WebPage get(URL url, long maxStaleness, WebStats stats)
+        throws WebReaderException {
+        WebPage page = lookup(url.toString(), maxStaleness);
+        if (stats != null) {
+            if (page == null) {
+                stats.cacheMiss();
+            } else {
+                stats.cacheHit();
+            }
+        }
+        if (page == null) {
+            return load(url, stats);
+        }
+        if (isExpired(page)) {
+            reloadInBackground(url, stats);
+        }
+        return page;
+    }
+
+    /** Returns the page for a URL if it is cached and no staler than
+     * {@link #get(URL, long)} allows, or null; never fetches in the
+     * foreground. */
+    WebPage cached(URL url, long maxStaleness, WebStats stats) {
+        WebPage page = lookup(url.toString(), maxStaleness);
+        if (page == null) {
+            return null;
+        }
+        if (stats != null) {
+            stats.cacheHit();
+        }
+        if (isExpired(page)) {
+            reloadInBackground(url, stats);
+        }
+        return page;
+    }
+
+    /**
+     * Opens a URL as a character stream that is read as the caller goes,
+     * without caching it, so that a streamed scan of a page that is not
+     * cached holds no more than a row in memory. The fetch is counted (with
+     * the bytes read) when the stream is closed.
+     */
+    Reader open(URL url, final WebStats stats) throws WebReaderException {
+        final long start = System.nanoTime();
+        if (stats != null) {
+            stats.cacheMiss();
+        }
+        try {
+            InputStream in;
+            String charset;
+            WebFetcher fetcher;
+            synchronized (this) {
+                fetcher = this.fetcher;
+            }
+            if (url.getProtocol().equals("file")) {
+                in = new FileInputStream(new File(url.getFile()));
+                charset = FILE_CHARSET;
+            } else if (fetcher instanceof HttpWebFetcher) {
+                HttpWebFetcher.Body body = ((HttpWebFetcher) fetcher).open(url);
+                checkStatus(url, body.status, stats, start);
+                in = body.in;
+                charset = body.charset;
+            } else {
+                // other fetchers only hand over whole bodies
+                WebFetcher.Response response =
+                    fetcher.fetch(url, new HashMap<String, String>());
+                checkStatus(url, response.getStatus(), stats, start);
+                in = new ByteArrayInputStream(response.getBody());
+                charset = response.getCharset();
+            }
+            in = new FilterInputStream(in) {
+                private long bytes = 0;
+                private boolean closed = false;
+
+                @Override
+                public int read() throws IOException {
+                    int c = super.read();
+                    if (c >= 0) {
+                        this.bytes++;
+                    }
+                    return c;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) {
+                        this.bytes += n;
+                    }
+                    return n;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    if (!this.closed && stats != null) {
+                        stats.fetched(this.bytes, System.nanoTime() - start);
+                    }
+                    this.closed = true;
+                    super.close();
+                }
+            };
+            return new InputStreamReader(in,
+                (charset == null) ? FILE_CHARSET : charset);
+        } catch (IOException e) {
+            if (stats != null) {
+                stats.fetchFailed(System.nanoTime() - start);
+            }
+            throw new WebReaderException("Cannot read " + url.toString(), e);
+        }
+    }
+
+    private static void checkStatus(URL url, int status, WebStats stats,
+        long start) throws WebReaderException {
+        if (stats != null) {
+            stats.status(status);
+        }
+        if (status < 200 || status >= 300) {
+            if (stats != null) {
+                stats.fetchFailed(System.nanoTime() - start);
+            }
+            throw new WebReaderException("Cannot read " + url.toString()
+                + ": HTTP status " + status);
+        }
+    }
+
+    /** Fetches a URL again, even if it is cached; until the new page arrives,
+     * other callers keep getting the old one. */
+    WebPage reload(URL url) throws WebReaderException {
+        return reload(url, null);
+    }
+
+    WebPage reload(URL url, WebStats stats) throws WebReaderException {
+        return load(url, stats);
+    }
+
+    private void reloadInBackground(final URL url, final WebStats stats) {
+        if (this.inFlight.containsKey(url.toString())) {
+            return;
+        }
+        WebRefresher.execute(new Runnable() {
+            public void run() {
+                try {
+                    load(url, stats);
+                } catch (WebReaderException e) {
+                    // keep serving the stale page; the next request retries
+                }
+            }
+        });
+    }
+
+    // fetch a page and cache it; concurrent loads of a URL share one fetch,
+    // which is counted in the statistics of the table that started it
+    private WebPage load(final URL url, final WebStats stats)
+        throws WebReaderException {
+        final String key = url.toString();
+        FutureTask<WebPage> task = new FutureTask<WebPage>(
+            new Callable<WebPage>() {
+                public WebPage call() throws Exception {
+                    WebPage page = fetch(url, stats);
+                    put(key, page);
+                    return page;
+                }
+            });
+        FutureTask<WebPage> existing = this.inFlight.putIfAbsent(key, task);
+        if (existing == null) {
+            existing = task;
+            try {
+                task.run();
+            } finally {
+                this.inFlight.remove(key, task);
+            }
+        }
+
+        try {
+            return existing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WebReaderException("Interrupted reading " + key, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof WebReaderException) {
+                throw (WebReaderException) cause;
+            }
+            throw new WebReaderException("Cannot read " + key, cause);
+        }
+    }
+
+    /** Drops a URL from the cache so that the next request re-fetches it. */
+    synchronized void invalidate(URL url) {
+        WebPage page = this.pages.remove(url.toString());
+        if (page != null) {
+            this.bytes -= page.size();
+        }
+    }
+
+    // an expired page stays in memory, so that its validators can be sent
+    // when it is fetched again, until the new page replaces it
+    private synchronized WebPage lookup(String key, long maxStaleness) {
+        WebPage page = this.pages.get(key);
+        if (page != null && System.currentTimeMillis() - page.getFetchTime()
+            - this.ttl > maxStaleness) {
+            return null;
+        }
+        return page;
+    }
+
+    private synchronized boolean isExpired(WebPage page) {
+        return System.currentTimeMillis() - page.getFetchTime() > this.ttl;
+    }
+
+    private synchronized void put(String key, WebPage page) {
+        WebPage old = this.pages.put(key, page);
+        if (old != null) {
+            this.bytes -= old.size();
+        }
+        this.bytes += page.size();
+        evict();
+    }
+
+    // drop least recently used pages until we fit (but keep the newest)
+    private void evict() {
+        Iterator<WebPage> iterator = this.pages.values().iterator();
+        while (this.bytes > this.maxBytes && this.pages.size() > 1
+            && iterator.hasNext()) {
+            WebPage page = iterator.next();
+            iterator.remove();
+            this.bytes -= page.size();
+        }
+    }
+
+    private WebPage fetch(URL url, WebStats stats) throws WebReaderException {
+        long start = System.nanoTime();
+        boolean fetched = false;
+        try {
+            long now = System.currentTimeMillis();
+            WebPage page;
+            if (url.getProtocol().equals("file")) {
+                page = new WebPage(url.toString(),
+                    readFully(new FileInputStream(new File(url.getFile()))),
+                    FILE_CHARSET, now, null, null, this.keepDocuments);
+                if (stats != null) {
+                    stats.fetched(page.size(), System.nanoTime() - start);
+                }
+            } else {
+                page = fetchRemote(url, now, stats, start);
+            }
+            fetched = true;
+            return page;
+        } catch (IOException e) {
+            throw new WebReaderException("Cannot read " + url.toString(), e);
+        } finally {
+            if (!fetched && stats != null) {
+                stats.fetchFailed(System.nanoTime() - start);
+            }
+        }
+    }
+
+    // fetch over the network, revalidating the expired copy in memory or, if
+    // there is none, the copy on disk; the stored body is read only if a 304
+    // confirms it
+    private WebPage fetchRemote(URL url, long now, WebStats stats, long start)
+        throws IOException, WebReaderException {
+        WebDiskCache disk;
+        boolean keep;
+        WebFetcher fetcher;
+        WebPage expired;
+        synchronized (this) {
+            disk = this.diskCache;
+            keep = this.keepDocuments;
+            fetcher = this.fetcher;
+            expired = this.pages.get(url.toString());
+        }
+
+        Map<String, String> headers = new HashMap<String, String>();
+        if (expired != null) {
+            if (expired.getEtag() != null) {
+                headers.put("If-None-Match", expired.getEtag());
+            }
+            if (expired.getLastModified() != null) {
+                headers.put("If-Modified-Since", expired.getLastModified());
+            }
+        } else if (disk != null) {
+            Properties meta = disk.meta(url.toString());
+            if (meta != null) {
+                if (meta.getProperty("etag") != null) {
+                    headers.put("If-None-Match", meta.getProperty("etag"));
+                }
+                if (meta.getProperty("lastModified") != null) {
+                    headers.put("If-Modified-Since",
+                        meta.getProperty("lastModified"));
+                }
+            }
+        }
+        WebFetcher.Response response = fetcher.fetch(url, headers);
+        int status = response.getStatus();
+        if (stats != null) {
+            stats.status(status);
+        }
+        if (status == 304 && !headers.isEmpty()) {
+            WebPage stored = (expired != null) ? expired
+                : disk.load(url.toString(), keep);
+            if (stored != null) {
+                if (stats != null) {
+                    stats.fetched(0L, System.nanoTime() - start);
+                }
+                return stored.revalidated(now);
+            }
+        }
+        if (status < 200 || status >= 300) {
+            throw new WebReaderException("Cannot read " + url.toString()
+                + ": HTTP status " + status);
+        }
+        if (stats != null) {
+            stats.fetched(response.getBody().length,
+                System.nanoTime() - start);
+        }
+
+        WebPage page = new WebPage(url.toString(), response.getBody(),
+            response.getCharset(), now, response.getEtag(),
+            response.getLastModified(), keep);
+        if (disk != null) {
+            disk.store(page);
+        }
+        return page;
+    }
+
+    static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
+
+// End WebPageCache.java
@@ -0,0 +1,275 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import org.jsoup.nodes.Element;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * How a table is split across several pages.
+ *
+ * <p>Either the URL holds a <code>{page}</code> placeholder and the pages are
+ * numbered <code>from</code> to <code>to</code>, or each page links to the
+ * next one, found with the <code>next</code> selector (at most
+ * <code>maxPages</code> pages are read):</p>
+ * <pre>
+ * url: "http://example.com/list?page={page}",
+ * pagination: {from: 1, to: 20, window: 2}
+ *
+ * url: "http://example.com/list",
+ * pagination: {next: "a[rel=next]", maxPages: 50}
+ * </pre>
+ *
+ * <p>Every page is read with the table's selector, index and hints, and its
+ * heading row is dropped; the table's headings are those of the first page.
+ * While the rows of one page are being read, the next <code>window</code>
+ * pages are fetched in the background into the {@link WebPageCache}. With a
+ * next link, only the following page is known in advance, so the window is
+ * at most 1.</p>
+ */
+class WebPagination {
+    static final String PLACEHOLDER = "{page}";
+    private static final int DEFAULT_WINDOW = 2;
+    private static final int DEFAULT_MAX_PAGES = 100;
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final ExecutorService FETCHES =
+        Executors.newCachedThreadPool(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r,
+                    "optiq-web-page-" + THREAD_COUNT.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    private final String template;
+    private final int from;
+    private final int to;
+    private final String next;
+    private final int maxPages;
+    private final int window;
+
+    private WebPagination(String template, int from, int to, String next,
+        int maxPages, int window) {
+        this.template = template;
+        this.from = from;
+        this.to = to;
+        this.next = next;
+        this.maxPages = maxPages;
+        this.window = window;
+    }
+
+    /** Creates a pagination from a table's URL and its
+     * <code>pagination</code> entry, or returns null if there is none. */
+    static WebPagination of(String url, Map<String, Object> config)
+        throws WebReaderException {
+        if (config == null) {
+            return null;
+        }
+        Number window = (Number) config.get("window");
+        int w = (window == null) ? DEFAULT_WINDOW : window.intValue();
+        if (w < 0) {
+            throw new WebReaderException("bad pagination window: " + w);
+        }
+        String next = (String) config.get("next");
+        if (next != null) {
+            Number maxPages = (Number) config.get("maxPages");
+            return new WebPagination(null, 0, 0, next,
+                (maxPages == null) ? DEFAULT_MAX_PAGES : maxPages.intValue(),
+                Math.min(w, 1));
+        }
+        Number from = (Number) config.get("from");
+        Number to = (Number) config.get("to");
+        if (url == null || !url.contains(PLACEHOLDER) || to == null) {
+            throw new WebReaderException("bad pagination: need a URL containing "
+                + PLACEHOLDER + " and a 'to' page, or a 'next' selector");
+        }
+        int f = (from == null) ? 1 : from.intValue();
+        if (to.intValue() < f) {
+            throw new WebReaderException("bad pagination: pages " + f + " to " + to);
+        }
+        return new WebPagination(url, f, to.intValue(), null, 0, w);
+    }
+
+    /** The URL to fetch first for a table definition; with a page template,
+     * that of the first page. */
+    static String firstUrl(Map<String, Object> tableDef) {
+        return firstUrl((String) tableDef.get("url"),
+            (Map<String, Object>) tableDef.get("pagination"));
+    }
+
+    /** The URL to fetch first, given a URL and a <code>pagination</code>
+     * entry (which may be null). */
+    static String firstUrl(String url, Map<String, Object> config) {
+        if (url == null || config == null || config.get("next") != null) {
+            return url;
+        }
+        Number from = (Number) config.get("from");
+        return url.replace(PLACEHOLDER,
+            String.valueOf((from == null) ? 1 : from.intValue()));
+    }
+
+    String firstUrl() {
+        return (this.template == null) ? null : pageUrl(this.from);
+    }
+
+    private String pageUrl(int page) {
+        return this.template.replace(PLACEHOLDER, String.valueOf(page));
+    }
+
+    /** Returns the rows of all pages in order, starting from the reader of
+     * the first page. */
+    Chain rows(WebReader first) {
+        return new Chain(first);
+    }
+
+    // fetch a page into the cache in the background; the reader that needs
+    // it later joins the fetch, or finds it done
+    private static void prefetch(String spec) {
+        final URL url;
+        try {
+            url = new URL(spec);
+        } catch (MalformedURLException e) {
+            return;
+        }
+        FETCHES.execute(new Runnable() {
+            public void run() {
+                try {
+                    WebPageCache.instance().get(url);
+                } catch (Exception e) {
+                    // the reader will fetch again and report the error
+                }
+            }
+        });
+    }
+
+    /** Rows of one page after another. */
+    class Chain implements Iterator<Element> {
+        private final WebReader first;
+        private WebReader reader;
+        private Iterator<Element> rows;
+        private int page;
+        private int pages = 0;
+        private int prefetched;
+        private String nextUrl;
+        private boolean closed = false;
+        private final Set<String> visited = new HashSet<String>();
+
+        Chain(WebReader first) {
+            this.first = first;
+            this.page = from - 1;
+            this.prefetched = from;
+        }
+
+        public boolean hasNext() {
+            try {
+                while (this.rows == null || !this.rows.hasNext()) {
+                    closeRows();
+                    if (!advance()) {
+                        return false;
+                    }
+                }
+                return true;
+            } catch (WebReaderException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public Element next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return this.rows.next();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        // move to the following page and start fetching those after it
+        private boolean advance() throws WebReaderException {
+            if (this.closed) {
+                return false;
+            }
+            if (template != null) {
+                if (this.page >= to) {
+                    return false;
+                }
+                this.page++;
+                this.reader = (this.page == from)
+                    ? this.first : this.first.pageReader(pageUrl(this.page));
+                while (this.prefetched < Math.min(to, this.page + window)) {
+                    prefetch(pageUrl(++this.prefetched));
+                }
+            } else {
+                if (this.pages == 0) {
+                    this.reader = this.first;
+                } else if (this.nextUrl == null || this.pages >= maxPages) {
+                    return false;
+                } else {
+                    this.reader = this.first.pageReader(this.nextUrl);
+                }
+                this.pages++;
+                this.visited.add(this.reader.currentPage().getUrl());
+                this.nextUrl = nextLink(this.reader);
+                if (this.nextUrl != null && window > 0 && this.pages < maxPages) {
+                    prefetch(this.nextUrl);
+                }
+            }
+            this.rows = this.reader.rows();
+            return true;
+        }
+
+        // the absolute URL of the next page, or null at the last page
+        private String nextLink(WebReader reader) throws WebReaderException {
+            Element link = reader.currentPage().document().select(next).first();
+            if (link == null) {
+                return null;
+            }
+            String url = link.absUrl("href");
+            return (url.length() == 0 || this.visited.contains(url)) ? null : url;
+        }
+
+        private void closeRows() {
+            if (this.rows instanceof WebTableStream) {
+                ((WebTableStream) this.rows).close();
+            }
+            this.rows = null;
+        }
+
+        void close() {
+            closeRows();
+            this.closed = true;
+        }
+    }
+}
+
+// End WebPagination.java
@@ -0,0 +1,397 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import net.hydromatic.linq4j.Enumerator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A table made of many same-shaped pages, one per partition, scanned in
+ * parallel.
+ *
+ * <p>The <code>url</code> of the table is either a list of URLs, or a template
+ * with a placeholder named after the partition column:</p>
+ * <pre>
+ * url: "http://example.com/sales/{region}.html",
+ * partitions: {column: "region", values: ["east", "west"], threads: 8,
+ *     queueSize: 1024}
+ *
+ * url: ["http://example.com/a.html", "http://example.com/b.html"],
+ * partitions: {column: "source"}
+ * </pre>
+ *
+ * <p>The table gets an extra VARCHAR column, last, holding the partition's
+ * value (the URL itself for a list; the column is called <code>url</code>
+ * unless named). Filters pushed into the scan on that column prune
+ * partitions before anything is fetched. The remaining partitions are read
+ * by a pool of <code>threads</code> threads, and their rows merge, in no
+ * particular order, through a queue of at most <code>queueSize</code> rows,
+ * so fast partitions wait for a slow consumer rather than filling memory.</p>
+ *
+ * <p>Fields come from the headings of the first partition, and are assumed
+ * to be the same on every page.</p>
+ */
+class WebPartitions {
+    private static final int DEFAULT_THREADS = 8;
+    private static final int DEFAULT_QUEUE_SIZE = 1024;
+    private static final String DEFAULT_COLUMN = "url";
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    // end of a partition's rows
+    private static final Object DONE = new Object();
+
+    private final String column;
+    private final List<String> values;
+    private final List<WebReader> readers;
+    private final int threads;
+    private final int queueSize;
+
+    private WebPartitions(String column, List<String> values,
+        List<WebReader> readers, int threads, int queueSize) {
+        this.column = column;
+        this.values = values;
+        this.readers = readers;
+        this.threads = threads;
+        this.queueSize = queueSize;
+    }
+
+    /** Creates the partitions of a table definition, or returns null if the
+     * table has a single URL. */
+    static WebPartitions of(Map<String, Object> tableDef) throws WebReaderException {
+        Map<String, Object> config = (Map<String, Object>) tableDef.get("partitions");
+        if (config == null && !(tableDef.get("url") instanceof List)) {
+            return null;
+        }
+        if (config == null) {
+            config = Collections.emptyMap();
+        }
+        List<String> urls = new ArrayList<String>();
+        List<String> values = new ArrayList<String>();
+        String column = expand(tableDef, urls, values);
+        if (urls.isEmpty()) {
+            throw new WebReaderException("bad partitions: no URLs");
+        }
+
+        List<WebReader> readers = new ArrayList<WebReader>();
+        for (String url : urls) {
+            readers.add(WebTable.newReader(url, tableDef));
+        }
+        Number threads = (Number) config.get("threads");
+        Number queueSize = (Number) config.get("queueSize");
+        return new WebPartitions(column, values, readers,
+            (threads == null) ? DEFAULT_THREADS : Math.max(1, threads.intValue()),
+            (queueSize == null) ? DEFAULT_QUEUE_SIZE
+                : Math.max(1, queueSize.intValue()));
+    }
+
+    /** The URLs a table definition reads first: one per partition, or just
+     * the table's own. */
+    static List<String> urls(Map<String, Object> tableDef) throws WebReaderException {
+        List<String> urls = new ArrayList<String>();
+        if (tableDef.get("partitions") == null
+            && !(tableDef.get("url") instanceof List)) {
+            String url = WebPagination.firstUrl(tableDef);
+            if (url != null) {
+                urls.add(url);
+            }
+            return urls;
+        }
+        expand(tableDef, urls, new ArrayList<String>());
+        Map<String, Object> pagination =
+            (Map<String, Object>) tableDef.get("pagination");
+        for (int i = 0; i < urls.size(); i++) {
+            urls.set(i, WebPagination.firstUrl(urls.get(i), pagination));
+        }
+        return urls;
+    }
+
+    // list each partition's URL and value; returns the column name
+    private static String expand(Map<String, Object> tableDef, List<String> urls,
+        List<String> values) throws WebReaderException {
+        Object url = tableDef.get("url");
+        Map<String, Object> config = (Map<String, Object>) tableDef.get("partitions");
+        String column = (config == null) ? null : (String) config.get("column");
+        if (url instanceof List) {
+            for (Object o : (List<Object>) url) {
+                urls.add(String.valueOf(o));
+                values.add(String.valueOf(o));
+            }
+            return (column == null) ? DEFAULT_COLUMN : column;
+        }
+        List<Object> list = (config == null) ? null : (List<Object>) config.get("values");
+        String placeholder = "{" + column + "}";
+        if (column == null || list == null || !(url instanceof String)
+            || !((String) url).contains(placeholder)) {
+            throw new WebReaderException("bad partitions: need a list of URLs, or"
+                + " a URL containing {column} and a list of values");
+        }
+        for (Object o : list) {
+            String value = String.valueOf(o);
+            urls.add(((String) url).replace(placeholder, value));
+            values.add(value);
+        }
+        return column;
+    }
+
+    /** Records the work of every partition in the table's statistics. */
+    void setStats(WebStats stats) {
+        for (WebReader reader : this.readers) {
+            reader.setStats(stats);
+        }
+    }
+
+    /** Fetches every partition's pages again. */
+    void reload() throws WebReaderException {
+        for (WebReader reader : this.readers) {
+            reader.reload();
+        }
+    }
+
+    /** Name of the partition column. */
+    String getColumn() {
+        return this.column;
+    }
+
+    /** Reader of the first partition, whose headings define the fields. */
+    WebReader firstReader() {
+        return this.readers.get(0);
+    }
+
+    /** Returns an enumerator over a projection of the rows of all partitions
+     * that pass some filters; the partition column is field
+     * <code>converter.width()</code>. */
+    Enumerator<Object> enumerator(WebRowConverter converter, int[] fields,
+        WebFilter[] filters) {
+        return new Scan(converter, fields, filters);
+    }
+
+    // a failure in a partition, passed on to the consumer; a RuntimeException
+    // or an Error, since producers throw nothing else
+    private static class Failure {
+        final Throwable cause;
+
+        Failure(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+
+    // one pass of a scan over its partitions; producers of a pass that was
+    // closed or reset hold on to its queue and flag, never the next pass's
+    private static class Run {
+        final BlockingQueue<Object> queue;
+        volatile boolean cancelled = false;
+        ThreadPoolExecutor executor;
+        // partitions not yet DONE; read and written by the consumer only
+        int running;
+
+        Run(int queueSize, int running) {
+            this.queue = new ArrayBlockingQueue<Object>(queueSize);
+            this.running = running;
+        }
+
+        void cancel() {
+            this.cancelled = true;
+            this.running = 0;
+            if (this.executor != null) {
+                // wakes producers blocked on a full queue
+                this.executor.shutdownNow();
+                this.executor = null;
+            }
+        }
+    }
+
+    /** Parallel scan of the partitions that survive pruning. */
+    private class Scan implements Enumerator<Object> {
+        private final WebRowConverter converter;
+        private final int[] fields;
+        private final List<Integer> partitions = new ArrayList<Integer>();
+        // projection and filters of the fields read from cells
+        private final int[] cellFields;
+        private final WebFilter[] cellFilters;
+        // for each projected field, its index in cellFields, or -1 for the
+        // partition column
+        private final int[] sources;
+
+        // the current pass; null until the first moveNext, and after a reset
+        private Run run;
+        private Object current;
+
+        Scan(WebRowConverter converter, int[] fields, WebFilter[] filters) {
+            this.converter = converter;
+            this.fields = fields;
+            int partitionField = converter.width();
+
+            List<WebFilter> cellFilters = new ArrayList<WebFilter>();
+            List<WebFilter> partitionFilters = new ArrayList<WebFilter>();
+            for (WebFilter filter : filters) {
+                if (filter.getField() == partitionField) {
+                    partitionFilters.add(filter);
+                } else {
+                    cellFilters.add(filter);
+                }
+            }
+            this.cellFilters = cellFilters.toArray(new WebFilter[cellFilters.size()]);
+
+            // prune
+            for (int i = 0; i < values.size(); i++) {
+                boolean keep = true;
+                for (WebFilter filter : partitionFilters) {
+                    keep = keep && filter.accept(values.get(i));
+                }
+                if (keep) {
+                    this.partitions.add(Integer.valueOf(i));
+                }
+            }
+
+            this.sources = new int[fields.length];
+            int n = 0;
+            for (int i = 0; i < fields.length; i++) {
+                this.sources[i] = (fields[i] == partitionField) ? -1 : n++;
+            }
+            this.cellFields = new int[n];
+            for (int i = 0; i < fields.length; i++) {
+                if (this.sources[i] >= 0) {
+                    this.cellFields[this.sources[i]] = fields[i];
+                }
+            }
+        }
+
+        private Run start() {
+            final Run run = new Run(queueSize, this.partitions.size());
+            if (run.running == 0) {
+                return run;
+            }
+            int size = Math.min(threads, run.running);
+            run.executor = new ThreadPoolExecutor(size, size,
+                1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r,
+                            "optiq-web-partition-" + THREAD_COUNT.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            for (final Integer partition : this.partitions) {
+                run.executor.execute(new Runnable() {
+                    public void run() {
+                        produce(run, partition.intValue());
+                    }
+                });
+            }
+            run.executor.shutdown();
+            return run;
+        }
+
+        // read one partition into the queue of a pass
+        private void produce(Run run, int partition) {
+            final String value = values.get(partition);
+            WebEnumerator rows = null;
+            try {
+                rows = new WebEnumerator(readers.get(partition).iterator(),
+                    this.converter, this.cellFields, this.cellFilters).withoutReplay();
+                while (!run.cancelled && rows.moveNext()) {
+                    Object[] cells = (Object[]) rows.current();
+                    Object[] row = new Object[this.fields.length];
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] = (this.sources[i] < 0) ? value : cells[this.sources[i]];
+                    }
+                    run.queue.put(row);
+                }
+                run.queue.put(DONE);
+            } catch (InterruptedException e) {
+                // the scan was closed
+            } catch (Throwable e) {
+                // anything else, even an Error, must reach the consumer, which
+                // would otherwise wait for this partition forever
+                try {
+                    run.queue.put(new Failure(e));
+                } catch (InterruptedException e2) {
+                    // the scan was closed
+                }
+            } finally {
+                if (rows != null) {
+                    rows.close();
+                }
+            }
+        }
+
+        public Object current() {
+            return this.current;
+        }
+
+        public boolean moveNext() {
+            if (this.run == null) {
+                this.run = start();
+            }
+            while (this.run.running > 0) {
+                Object o;
+                try {
+                    o = this.run.queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    close();
+                    throw new RuntimeException(e);
+                }
+                if (o == DONE) {
+                    this.run.running--;
+                } else if (o instanceof Failure) {
+                    close();
+                    Throwable cause = ((Failure) o).cause;
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw (RuntimeException) cause;
+                } else {
+                    this.current = o;
+                    return true;
+                }
+            }
+            this.current = null;
+            return false;
+        }
+
+        // rescans every partition; converted rows are not kept
+        public void reset() {
+            close();
+            this.run = null;
+        }
+
+        public void close() {
+            if (this.run == null) {
+                // closed before it started: an empty pass
+                this.run = new Run(1, 0);
+            }
+            this.run.cancel();
+            this.current = null;
+        }
+    }
+}
+
+// End WebPartitions.java
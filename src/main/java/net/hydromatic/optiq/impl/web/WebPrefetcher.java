@@ -0,0 +1,197 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches the pages of all tables in a schema concurrently, so that a query
+ * joining tables on different URLs waits for the slowest page rather than
+ * for the sum of them.
+ *
+ * <p>Pages go into the {@link WebPageCache}; a reader that asks for a page
+ * still being prefetched joins that fetch instead of starting another.
+ * Fetches run on a bounded pool of daemon threads, and at most
+ * <code>perHost</code> of them talk to any one host at a time. A failed
+ * prefetch is ignored: the reader will fetch the page again, and report the
+ * error, when it needs it.</p>
+ */
+class WebPrefetcher {
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    /** When to prefetch. */
+    enum Mode {
+        /** Never; pages are fetched by readers as queries need them. */
+        NONE,
+        /** As soon as the schema is created. */
+        EAGER,
+        /** When the schema's tables are first looked up. */
+        LAZY
+    }
+
+    private final Mode mode;
+    private final int threads;
+    private final int perHost;
+    private final Map<String, Semaphore> hosts = new HashMap<String, Semaphore>();
+    private boolean started = false;
+
+    WebPrefetcher(Mode mode, int threads, int perHost) {
+        this.mode = mode;
+        this.threads = threads;
+        this.perHost = perHost;
+    }
+
+    /** Creates a prefetcher from a <code>prefetch</code> operand, which may be
+     * null (no prefetch). */
+    static WebPrefetcher of(Map<String, Object> config) throws WebReaderException {
+        if (config == null) {
+            return new WebPrefetcher(Mode.NONE, 0, 0);
+        }
+        String mode = (String) config.get("mode");
+        Number threads = (Number) config.get("threads");
+        Number perHost = (Number) config.get("perHost");
+        try {
+            return new WebPrefetcher(
+                (mode == null) ? Mode.EAGER : Mode.valueOf(mode.toUpperCase()),
+                (threads == null) ? 8 : threads.intValue(),
+                (perHost == null) ? 2 : perHost.intValue());
+        } catch (IllegalArgumentException e) {
+            throw new WebReaderException("bad prefetch mode: '" + mode + "'", e);
+        }
+    }
+
+    Mode getMode() {
+        return this.mode;
+    }
+
+    /** Starts fetching the pages of the given table definitions in the
+     * background, and returns the fetches; does nothing after the first
+     * call. */
+    synchronized List<Future<?>> start(List<Map<String, Object>> tableDefs) {
+        List<Future<?>> fetches = new ArrayList<Future<?>>();
+        if (this.started || this.mode == Mode.NONE || tableDefs == null) {
+            return fetches;
+        }
+        this.started = true;
+
+        // distinct URLs, grouped by host
+        Map<String, Set<URL>> byHost = new LinkedHashMap<String, Set<URL>>();
+        int count = 0;
+        for (Map<String, Object> tableDef : tableDefs) {
+            List<String> specs;
+            try {
+                specs = WebPartitions.urls(tableDef);
+            } catch (WebReaderException e) {
+                // the table itself will report it
+                continue;
+            }
+            for (String spec : specs) {
+                try {
+                    URL url = new URL(spec);
+                    Set<URL> urls = byHost.get(url.getHost());
+                    if (urls == null) {
+                        urls = new LinkedHashSet<URL>();
+                        byHost.put(url.getHost(), urls);
+                    }
+                    if (urls.add(url)) {
+                        count++;
+                    }
+                } catch (MalformedURLException e) {
+                    // the table itself will report it
+                }
+            }
+        }
+        if (count == 0) {
+            return fetches;
+        }
+
+        // interleave hosts, so threads waiting on one host's limit don't
+        // hold up the others
+        List<URL> order = new ArrayList<URL>();
+        List<List<URL>> queues = new ArrayList<List<URL>>();
+        for (Set<URL> urls : byHost.values()) {
+            queues.add(new ArrayList<URL>(urls));
+        }
+        for (int i = 0; order.size() < count; i++) {
+            for (List<URL> queue : queues) {
+                if (i < queue.size()) {
+                    order.add(queue.get(i));
+                }
+            }
+        }
+
+        int size = Math.max(1, Math.min(this.threads, count));
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(size, size,
+            1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r,
+                        "optiq-web-prefetch-" + THREAD_COUNT.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        for (final URL url : order) {
+            final Semaphore host = host(url);
+            fetches.add(executor.submit(new Runnable() {
+                public void run() {
+                    host.acquireUninterruptibly();
+                    try {
+                        WebPageCache.instance().get(url);
+                    } catch (Exception e) {
+                        // the reader will fetch again and report the error
+                    } finally {
+                        host.release();
+                    }
+                }
+            }));
+        }
+        // queued fetches still run; idle threads then exit
+        executor.shutdown();
+        return fetches;
+    }
+
+    // concurrency limit for the host of a URL (files share one)
+    private Semaphore host(URL url) {
+        String host = url.getHost();
+        Semaphore semaphore = this.hosts.get(host);
+        if (semaphore == null) {
+            semaphore = new Semaphore(Math.max(1, this.perHost));
+            this.hosts.put(host, semaphore);
+        }
+        return semaphore;
+    }
+}
+
+// End WebPrefetcher.java
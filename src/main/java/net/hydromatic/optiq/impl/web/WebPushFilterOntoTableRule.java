@@ -0,0 +1,185 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import org.eigenbase.rel.FilterRel;
+import org.eigenbase.relopt.*;
+import org.eigenbase.rex.RexCall;
+import org.eigenbase.rex.RexInputRef;
+import org.eigenbase.rex.RexLiteral;
+import org.eigenbase.rex.RexNode;
+import org.eigenbase.util.NlsString;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Planner rule that pushes simple predicates of a filter into a
+ * {@link WebTableScan}, so that the scan rejects rows before converting
+ * their remaining cells.
+ *
+ * <p>Comparisons (=, &lt;&gt;, &lt;, &lt;=, &gt;, &gt;=) between a field and
+ * a character, numeric or boolean literal, LIKE without an escape, and
+ * disjunctions of equalities on one field (which is how IN lists arrive)
+ * are pushed. If every conjunct of the condition is pushed, the filter is
+ * removed; otherwise it stays on top of the scan.</p>
+ */
+public class WebPushFilterOntoTableRule extends RelOptRule {
+  public static final WebPushFilterOntoTableRule INSTANCE =
+      new WebPushFilterOntoTableRule();
+
+  private WebPushFilterOntoTableRule() {
+    super(
+        operand(FilterRel.class,
+            operand(WebTableScan.class, none())),
+        "WebPushFilterOntoTableRule");
+  }
+
+  @Override
+  public void onMatch(RelOptRuleCall call) {
+    final FilterRel filter = (FilterRel) call.rel(0);
+    final WebTableScan scan = (WebTableScan) call.rel(1);
+
+    final List<WebFilter> filters = new ArrayList<WebFilter>(scan.filters);
+    boolean pushedAll = true;
+    boolean pushedNew = false;
+    for (RexNode conjunct : RelOptUtil.conjunctions(filter.getCondition())) {
+      WebFilter webFilter = translate(conjunct, scan.fields);
+      if (webFilter == null) {
+        pushedAll = false;
+      } else if (!filters.contains(webFilter)) {
+        filters.add(webFilter);
+        pushedNew = true;
+      }
+    }
+    if (!pushedNew) {
+      return;
+    }
+
+    final WebTableScan newScan =
+        new WebTableScan(
+            scan.getCluster(),
+            scan.getTable(),
+            scan.webTable,
+            scan.fields,
+            filters);
+    if (pushedAll) {
+      call.transformTo(newScan);
+    } else {
+      // the scan does part of the work; the filter re-checks the rest
+      call.transformTo(
+          new FilterRel(filter.getCluster(), newScan, filter.getCondition()));
+    }
+  }
+
+  // translate one conjunct, or return null if it cannot be pushed
+  private WebFilter translate(RexNode node, int[] fields) {
+    if (!(node instanceof RexCall)) {
+      return null;
+    }
+    final RexCall call = (RexCall) node;
+    final WebFilter.Op op;
+    switch (call.getKind()) {
+    case EQUALS:
+      op = WebFilter.Op.EQUALS;
+      break;
+    case NOT_EQUALS:
+      op = WebFilter.Op.NOT_EQUALS;
+      break;
+    case LESS_THAN:
+      op = WebFilter.Op.LESS_THAN;
+      break;
+    case LESS_THAN_OR_EQUAL:
+      op = WebFilter.Op.LESS_THAN_OR_EQUAL;
+      break;
+    case GREATER_THAN:
+      op = WebFilter.Op.GREATER_THAN;
+      break;
+    case GREATER_THAN_OR_EQUAL:
+      op = WebFilter.Op.GREATER_THAN_OR_EQUAL;
+      break;
+    case LIKE:
+      op = WebFilter.Op.LIKE;
+      break;
+    case OR:
+      return translateIn(call, fields);
+    default:
+      return null;
+    }
+
+    final List<RexNode> operands = call.getOperands();
+    if (operands.size() != 2) {
+      // e.g. LIKE with ESCAPE
+      return null;
+    }
+    RexNode left = operands.get(0);
+    RexNode right = operands.get(1);
+    WebFilter.Op actual = op;
+    if (left instanceof RexLiteral && right instanceof RexInputRef) {
+      if (op == WebFilter.Op.LIKE) {
+        return null;
+      }
+      RexNode swap = left;
+      left = right;
+      right = swap;
+      actual = op.reverse();
+    }
+    if (!(left instanceof RexInputRef) || !(right instanceof RexLiteral)) {
+      return null;
+    }
+    final Object value = literalValue((RexLiteral) right);
+    if (value == null || (actual == WebFilter.Op.LIKE && !(value instanceof String))) {
+      return null;
+    }
+    return new WebFilter(fields[((RexInputRef) left).getIndex()], actual,
+        new Object[] {value});
+  }
+
+  // OR of equalities between one field and literals is an IN list
+  private WebFilter translateIn(RexCall or, int[] fields) {
+    int field = -1;
+    final List<Object> values = new ArrayList<Object>();
+    for (RexNode operand : or.getOperands()) {
+      final WebFilter equals = translate(operand, fields);
+      if (equals == null || equals.getOp() != WebFilter.Op.EQUALS) {
+        return null;
+      }
+      if (field >= 0 && equals.getField() != field) {
+        return null;
+      }
+      field = equals.getField();
+      values.add(equals.getValues()[0]);
+    }
+    return new WebFilter(field, WebFilter.Op.IN, values.toArray());
+  }
+
+  // the Java value of a literal, if it is a kind we can evaluate
+  private static Object literalValue(RexLiteral literal) {
+    final Object value = literal.getValue();
+    if (value instanceof NlsString) {
+      return ((NlsString) value).getValue();
+    }
+    if (value instanceof BigDecimal || value instanceof Boolean) {
+      return value;
+    }
+    return null;
+  }
+}
+
+// End WebPushFilterOntoTableRule.java
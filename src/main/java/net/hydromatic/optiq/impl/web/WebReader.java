@@ -17,21 +17,26 @@
 */
 package net.hydromatic.optiq.impl.web;
 
-import org.jsoup.Jsoup;
-
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
 
 import org.jsoup.select.Elements;
-
-import java.io.File;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
 
 import java.io.IOException;
+import java.io.Reader;
 
 import java.net.MalformedURLException;
 import java.net.URL;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /*
  * WebReader - scrapes HTML tables from URLs using Jsoup
@@ -41,15 +46,18 @@ import java.util.Iterator;
  */
 public class WebReader implements Iterable<Elements> {
 
-    private static final String DEFAULT_CHARSET = "UTF-8";
-
     private URL url;
     private String selector;
     private Integer index;
-    private String charset = DEFAULT_CHARSET;
-    private Element tableElement;
-    private WebReaderIterator iterator;
-    private Elements headings;
+    private volatile Snapshot snapshot;
+    private volatile boolean streaming = false;
+    private volatile WebTableHints hints = WebTableHints.NONE;
+    private volatile WebPagination pagination;
+    private volatile long maxStaleness = 0L;
+    private volatile WebStats stats;
+    // readers of the second and later pages, by URL
+    private final ConcurrentMap<String, WebReader> pageReaders =
+        new ConcurrentHashMap<String, WebReader>();
 
     public WebReader(String url, String selector, Integer index) throws WebReaderException {
         if (url == null) {
@@ -73,23 +81,157 @@ public class WebReader implements Iterable<Elements> {
         this(url, null, null);
     }
 
-    private void getTable() throws WebReaderException {
+    /** The URL of the table's (first) page. */
+    String getUrl() {
+        return this.url.toString();
+    }
 
-        Document doc;
-        try {
-            String proto = this.url.getProtocol();
-            if (proto.equals("file")) {
-                doc = Jsoup.parse(new File(this.url.getFile()), this.charset);
-            } else {
-                doc = Jsoup.connect(this.url.toString()).get();
+    /**
+     * Enables streaming extraction: rows are tokenized straight off the page
+     * as the iterator advances, instead of parsing the whole page into a DOM
+     * first. Only selectors of the form <code>tag#id.class</code> can be
+     * evaluated while streaming; other selectors fall back to a full parse.
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Sets hints that narrow down the choice of table when there is no
+     * selector.
+     */
+    void setHints(WebTableHints hints) {
+        this.hints = hints;
+    }
+
+    /**
+     * Lets scans read a page up to <code>maxStaleness</code> milliseconds
+     * past its expiry from the page cache, while it is fetched again in the
+     * background.
+     */
+    void setMaxStaleness(long maxStaleness) {
+        this.maxStaleness = maxStaleness;
+    }
+
+    /** Records fetches, parses and table location in a table's
+     * statistics. */
+    void setStats(WebStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Spreads the table over several pages. With a page template, the reader
+     * moves to the URL of the first page.
+     */
+    void setPagination(WebPagination pagination) throws WebReaderException {
+        this.pagination = pagination;
+        String first = pagination.firstUrl();
+        if (first != null) {
+            try {
+                this.url = new URL(first);
+            } catch (MalformedURLException e) {
+                throw new WebReaderException("Malformed URL: '" + first + "'", e);
+            }
+        }
+    }
+
+    // the reader of a later page, with this reader's settings
+    WebReader pageReader(String url) throws WebReaderException {
+        WebReader reader = this.pageReaders.get(url);
+        if (reader == null) {
+            reader = new WebReader(url, this.selector, this.index);
+            reader.setHints(this.hints);
+            reader.setStreaming(this.streaming);
+            reader.setMaxStaleness(this.maxStaleness);
+            reader.setStats(this.stats);
+            WebReader existing = this.pageReaders.putIfAbsent(url, reader);
+            if (existing != null) {
+                reader = existing;
             }
-        } catch (IOException e) {
-            throw new WebReaderException("Cannot read " + this.url.toString(), e);
         }
+        return reader;
+    }
+
+    private boolean isStreaming() {
+        return this.streaming && WebTableStream.canStream(this.selector);
+    }
+
+    /** Returns the current version of the page, from the page cache. */
+    WebPage currentPage() throws WebReaderException {
+        return WebPageCache.instance().get(this.url, this.maxStaleness,
+            this.stats);
+    }
+
+    // locate the table in a page and split off (or make up) its headings
+    private Snapshot getTable(WebPage page) throws WebReaderException {
 
-        this.tableElement = (this.selector != null && !this.selector.equals(""))
+        // the document may be shared with other readers of the same page
+        Document doc = page.document(this.stats);
+
+        long start = System.nanoTime();
+        Element table = (this.selector != null && !this.selector.equals(""))
             ? getSelectedTable(doc, this.selector) : getBestTable(doc);
+        if (this.stats != null) {
+            this.stats.located(System.nanoTime() - start);
+        }
+
+        List<Element> rows = ownRows(table);
+        Elements headings = rows.isEmpty() ? new Elements() : rows.get(0).select("th");
+        boolean headingRow = headings.size() > 0;
+        if (!headingRow && !rows.isEmpty()) {
+            headings = defaultHeadings(rows.get(0));
+        }
+
+        // first row contains headings, and is not data
+        int first = headingRow ? 1 : 0;
+        Element[] data = rows.subList(first, rows.size())
+            .toArray(new Element[rows.size() - first]);
+        return new Snapshot(page, data, headings, headingRow);
+    }
+
+    // the rows of a table, not counting those of tables nested in its cells
+    private static List<Element> ownRows(Element table) {
+        List<Element> rows = new ArrayList<Element>();
+        for (Element child : table.children()) {
+            String tag = child.tagName();
+            if (tag.equals("tr")) {
+                rows.add(child);
+            } else if (tag.equals("thead") || tag.equals("tbody")
+                || tag.equals("tfoot")) {
+                for (Element tr : child.children()) {
+                    if (tr.tagName().equals("tr")) {
+                        rows.add(tr);
+                    }
+                }
+            }
+        }
+        return rows;
+    }
+
+    // the current snapshot, re-located if the page cache has a newer page
+    private Snapshot snapshot() throws WebReaderException {
+        WebPage current = currentPage();
+        Snapshot snapshot = this.snapshot;
+        if (snapshot == null || snapshot.rows == null
+            || !current.sameContent(snapshot.page)) {
+            // racing threads locate the same table; either result will do
+            snapshot = getTable(current);
+            this.snapshot = snapshot;
+        }
+        return snapshot;
+    }
 
+    // if there are no headings, generate some default column names
+    private static Elements defaultHeadings(Element firstRow) {
+        Elements headings = new Elements();
+        int i = 0;
+        for (Element td : firstRow.select("td")) {
+            Element th = td.clone();
+            th.tagName("th");
+            th.html("col" + i++);
+            headings.add(th);
+        }
+        return headings;
     }
 
     private Element getSelectedTable(Document doc, String selector) throws WebReaderException {
@@ -120,91 +262,272 @@ public class WebReader implements Iterable<Elements> {
         }
     }
 
+    // one walk of the document scores every table at once
     private Element getBestTable(Document doc) throws WebReaderException {
+        TableScorer scorer = new TableScorer();
+        new NodeTraversor(scorer).traverse(doc);
+
         Element bestTable = null;
         int bestScore = -1;
-
-        for (Element t : doc.select("table")) {
-            int rows = t.select("tr").size();
-            Element firstRow = t.select("tr").get(0);
-            int cols = firstRow.select("th,td").size();
-            int thisScore = rows * cols;
-            //System.out.println("(Rows, Cols, Score): (" + rows + ", " + cols + ", " + thisScore + ")");
-
+        for (TableScorer.Candidate t : scorer.candidates) {
+            String header = (this.hints.needsHeader() && t.firstRow != null)
+                ? t.firstRow.text() : null;
+            if (!this.hints.accepts(t.rows, header)) {
+                continue;
+            }
+            int thisScore = t.rows * t.cols;
             if (thisScore > bestScore) {
-                bestTable = t;
+                bestTable = t.table;
                 bestScore = thisScore;
             }
         }
 
         if (bestTable == null) {
-            throw new WebReaderException("no tables found");
+            throw new WebReaderException("no tables found"
+                + ((this.hints == WebTableHints.NONE) ? "" : " matching " + this.hints));
         }
 
         return bestTable;
     }
 
+    // Counts the rows of each table, and the cells of its first row; rows
+    // and cells of a nested table count towards the nested table only.
+    private static class TableScorer implements NodeVisitor {
+        final List<Candidate> candidates = new ArrayList<Candidate>();
+        private final List<Candidate> open = new ArrayList<Candidate>();
+
+        public void head(Node node, int depth) {
+            if (!(node instanceof Element)) {
+                return;
+            }
+            String tag = ((Element) node).tagName();
+            if (tag.equals("table")) {
+                Candidate candidate = new Candidate((Element) node);
+                this.candidates.add(candidate);
+                this.open.add(candidate);
+                return;
+            }
+            if (this.open.isEmpty()) {
+                return;
+            }
+            Candidate top = this.open.get(this.open.size() - 1);
+            if (tag.equals("tr")) {
+                if (top.rows++ == 0) {
+                    top.firstRow = (Element) node;
+                }
+            } else if ((tag.equals("th") || tag.equals("td")) && top.rows == 1) {
+                top.cols++;
+            }
+        }
+
+        public void tail(Node node, int depth) {
+            if (node instanceof Element && ((Element) node).tagName().equals("table")) {
+                this.open.remove(this.open.size() - 1);
+            }
+        }
+
+        static class Candidate {
+            final Element table;
+            Element firstRow;
+            int rows = 0;
+            int cols = 0;
+
+            Candidate(Element table) {
+                this.table = table;
+            }
+        }
+    }
+
+    // open a row stream over the selected (or best) table
+    private WebTableStream openTableStream(WebPage page) throws WebReaderException {
+        if (this.selector != null && !this.selector.equals("")) {
+            return WebTableStream.select(page.reader(), this.selector, this.index);
+        }
+
+        // best table takes two passes over the cached bytes
+        try {
+            int best = WebTableStream.bestTable(page.reader(), this.hints);
+            if (best < 0) {
+                throw new WebReaderException("no tables found"
+                    + ((this.hints == WebTableHints.NONE) ? "" : " matching " + this.hints));
+            }
+            return WebTableStream.ordinal(page.reader(), best);
+        } catch (IOException e) {
+            throw new WebReaderException("Cannot read " + this.url.toString(), e);
+        }
+    }
+
+    // rows come straight off the stream; the first row is peeked for headings,
+    // unless they were already derived from this version of the page
+    //
+    // A selected table of a page that is not cached is read off the network
+    // as the scan goes, so memory stays bounded and the first row arrives
+    // early. Finding the best table takes two passes, so that goes through
+    // the page cache.
+    private WebTableStream streamRows() throws WebReaderException {
+        WebPage page = WebPageCache.instance().cached(this.url,
+            this.maxStaleness, this.stats);
+        boolean selected = this.selector != null && !this.selector.equals("");
+        long start = System.nanoTime();
+        WebTableStream rows;
+        if (page == null && selected) {
+            Reader in = WebPageCache.instance().open(this.url, this.stats);
+            start = System.nanoTime();
+            rows = WebTableStream.select(in, this.selector, this.index);
+        } else {
+            if (page == null) {
+                page = currentPage();
+                start = System.nanoTime();
+            }
+            rows = openTableStream(page);
+        }
+        if (this.stats != null) {
+            // streaming has no separate parse; finding the table is all of it
+            this.stats.located(System.nanoTime() - start);
+        }
+        Snapshot snapshot = this.snapshot;
+        if (page == null || snapshot == null || snapshot.page == null
+            || !page.sameContent(snapshot.page)) {
+            Element first = rows.peek();
+            Elements headings = (first == null) ? new Elements() : first.select("th");
+            boolean headingRow = headings.size() > 0;
+            if (!headingRow && first != null) {
+                headings = defaultHeadings(first);
+            }
+            // nothing but the headings is shared between streamed scans
+            snapshot = new Snapshot(page, null, headings, headingRow);
+            this.snapshot = snapshot;
+        }
+        if (snapshot.headingRow && rows.hasNext()) {
+            // heading row is not data
+            rows.next();
+        }
+        return rows;
+    }
+
     public void refresh() throws WebReaderException {
-        this.headings = null;
-        getTable();
+        this.snapshot = null;
+        WebPageCache.instance().invalidate(this.url);
+        for (WebReader reader : this.pageReaders.values()) {
+            WebPageCache.instance().invalidate(reader.url);
+        }
+        this.pageReaders.clear();
+        if (isStreaming()) {
+            // nothing is held between scans; just verify the table is there
+            streamRows().close();
+            return;
+        }
+        snapshot();
     }
 
+    /**
+     * Fetches the pages read so far again and locates the table in them,
+     * without dropping the current ones first: concurrent scans carry on
+     * with the old snapshot until the new one is ready.
+     */
+    void reload() throws WebReaderException {
+        WebPageCache.instance().reload(this.url, this.stats);
+        for (WebReader reader : this.pageReaders.values()) {
+            reader.reload();
+        }
+        if (!isStreaming()) {
+            snapshot();
+        }
+    }
+
+    /**
+     * Returns the headings of the table. The result is shared between
+     * threads, and must not be modified.
+     */
     public Elements getHeadings() throws WebReaderException {
+        if (isStreaming()) {
+            Snapshot snapshot = this.snapshot;
+            if (snapshot == null) {
+                // only the heading row is needed; don't leave a stream open
+                streamRows().close();
+                snapshot = this.snapshot;
+            }
+            return snapshot.headings;
+        }
+        return snapshot().headings;
+    }
 
-        if (this.headings == null) {
-            this.iterator();
+    /**
+     * Returns the number of data rows in the table, or -1 when that is not
+     * known without reading the whole table (that is, when streaming, or when
+     * the table spans several pages).
+     */
+    int getRowCount() throws WebReaderException {
+        if (isStreaming() || this.pagination != null) {
+            return -1;
         }
+        return snapshot().rows.length;
+    }
 
-        return this.headings;
+    /**
+     * Same as {@link #getRowCount()}, but returns -1 rather than fetching the
+     * page if it is not in the page cache.
+     */
+    int getCachedRowCount() throws WebReaderException {
+        if (isStreaming() || this.pagination != null
+            || WebPageCache.instance().cached(this.url, this.maxStaleness,
+                null) == null) {
+            return -1;
+        }
+        return snapshot().rows.length;
     }
 
-    private String tableKey() {
-        return "Table: {url: " + this.url + ", selector: " + this.selector;
+    // identifies the table on its page, e.g. for a WebMetadataCache
+    String tableKey() {
+        return "Table: {url: " + this.url + ", selector: " + this.selector
+            + ", index: " + this.index + "}";
     }
 
+    /**
+     * Returns a new cursor over the data rows. Cursors are independent, so
+     * any number of threads may scan the same table at once.
+     */
     public WebReaderIterator iterator() {
-        if (this.tableElement == null) {
-            try {
-                getTable();
-            } catch (Exception e) {
-                // TODO: temporary hack
-                throw new RuntimeException(e);
-            }
-        }
-
-        this.iterator = new WebReaderIterator(this.tableElement.select("tr"));
-
-        // if we haven't cached the headings, get them
-        // TODO: this needs to be reworked to properly cache the headings
-        //if (this.headings == null) {
-        if (true) {
-            // first row must contain headings
-            Elements headings = this.iterator.next("th");
-            // if not, generate some default column names
-            if (headings.size() == 0) {
-                    // rewind and peek at the first row of data
-                    this.iterator = new WebReaderIterator(this.tableElement.select("tr"));
-                    Elements firstRow = this.iterator.next("td");
-                    int i = 0;
-                    headings = new Elements();
-                    for (Element td : firstRow) {
-                            Element th = td.clone();
-                            th.tagName("th");
-                            th.html("col" + i++);
-                            headings.add(th);
-                    }
-                    // rewind, so queries see the first row
-                    this.iterator = new WebReaderIterator(this.tableElement.select("tr"));
+        try {
+            WebPagination pagination = this.pagination;
+            if (pagination != null) {
+                return new WebReaderIterator(pagination.rows(this));
             }
-            this.headings = headings;
+            return new WebReaderIterator(rows());
+        } catch (WebReaderException e) {
+            throw new RuntimeException(e);
         }
+    }
 
-        return this.iterator;
+    /** Returns the data rows of this reader's own page. */
+    Iterator<Element> rows() throws WebReaderException {
+        if (isStreaming()) {
+            return streamRows();
+        }
+        return Arrays.asList(snapshot().rows).iterator();
     }
 
     public void close() {
     }
 
+    // An immutable view of a located table: the page it was found in, an index
+    // of its data rows and its headings, all derived once per version of the
+    // page. Rows are null when the table is streamed.
+    private static class Snapshot {
+        final WebPage page;
+        final Element[] rows;
+        final Elements headings;
+        final boolean headingRow;
+
+        Snapshot(WebPage page, Element[] rows, Elements headings,
+            boolean headingRow) {
+            this.page = page;
+            this.rows = rows;
+            this.headings = headings;
+            this.headingRow = headingRow;
+        }
+    }
+
     // Iterates over HTML tables, returning an Elements per row
     public class WebReaderIterator implements Iterator<Elements> {
         Iterator<Element> rowIterator;
@@ -213,6 +536,10 @@ public class WebReader implements Iterable<Elements> {
             this.rowIterator = rows.iterator();
         }
 
+        WebReaderIterator(Iterator<Element> rows) {
+            this.rowIterator = rows;
+        }
+
         public boolean hasNext() {
             return this.rowIterator.hasNext();
         }
@@ -231,5 +558,14 @@ public class WebReader implements Iterable<Elements> {
         public void remove() {
             throw new UnsupportedOperationException("NFW - can't remove!");
         }
+
+        // release the underlying stream, if rows are being streamed, and stop paging
+        public void close() {
+            if (this.rowIterator instanceof WebTableStream) {
+                ((WebTableStream) this.rowIterator).close();
+            } else if (this.rowIterator instanceof WebPagination.Chain) {
+                ((WebPagination.Chain) this.rowIterator).close();
+            }
+        }
     }
 }
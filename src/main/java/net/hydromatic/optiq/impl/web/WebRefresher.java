@@ -0,0 +1,105 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import java.lang.ref.WeakReference;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Refreshes tables in the background, so that queries read the last good
+ * snapshot instead of waiting for the network.
+ *
+ * <p>A table with a <code>refreshInterval</code> is re-fetched (and, if
+ * materialized, re-converted) that many milliseconds after the previous
+ * refresh finished; the new snapshot replaces the old one when it is
+ * complete. A failed refresh leaves the old snapshot in place. Tables are
+ * held weakly, so the refresh of a table that is no longer used stops.</p>
+ *
+ * <p>The same daemon threads revalidate stale pages (see
+ * {@link WebPageCache#get(java.net.URL, long)}).</p>
+ */
+class WebRefresher {
+    private static final int THREADS = 2;
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private static ScheduledThreadPoolExecutor executor;
+
+    private WebRefresher() {
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor executor() {
+        if (executor == null) {
+            executor = new ScheduledThreadPoolExecutor(THREADS,
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r,
+                            "optiq-web-refresh-" + THREAD_COUNT.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        }
+        return executor;
+    }
+
+    /** Runs a task on a background thread. */
+    static void execute(Runnable task) {
+        executor().execute(task);
+    }
+
+    /** Refreshes a table every <code>interval</code> milliseconds. */
+    static void schedule(WebTable table, long interval) {
+        RefreshTask task = new RefreshTask(table);
+        synchronized (task) {
+            task.future = executor().scheduleWithFixedDelay(task, interval,
+                interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // refreshes one table, until the table is garbage
+    private static class RefreshTask implements Runnable {
+        private final WeakReference<WebTable> table;
+        ScheduledFuture<?> future;
+
+        RefreshTask(WebTable table) {
+            this.table = new WeakReference<WebTable>(table);
+        }
+
+        public void run() {
+            WebTable table = this.table.get();
+            if (table == null) {
+                synchronized (this) {
+                    this.future.cancel(false);
+                }
+                return;
+            }
+            try {
+                table.refresh();
+            } catch (Exception e) {
+                // keep the old snapshot; the next run tries again
+            }
+        }
+    }
+}
+
+// End WebRefresher.java
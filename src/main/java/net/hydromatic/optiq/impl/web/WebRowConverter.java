@@ -23,18 +23,16 @@ import org.eigenbase.reltype.*;
 
 import org.eigenbase.util.Pair;
 
-import com.google.common.base.Joiner;
-
-import com.joestelmach.natty.*;
-
 import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
 import org.jsoup.select.Elements;
+import org.jsoup.select.Evaluator;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
+import org.jsoup.select.QueryParser;
 
 import java.io.*;
 
-import java.text.NumberFormat;
-import java.text.ParseException;
-
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -56,33 +54,108 @@ public class WebRowConverter {
     // cache for lazy initialization
     private WebReader webReader;
     private ArrayList<Map<String, Object>> fieldConfigs;
-    private boolean initialized = false;
+    private volatile boolean initialized = false;
+    // whether only the declared fields are columns
+    private final boolean declaredOnly;
 
     // row parser configuration
     private ArrayList<FieldDef> fields;
+    private List<String> headings;
+    private WebStats stats;
 
     // constructor
     public WebRowConverter(WebReader webReader, ArrayList<Map<String, Object>> fieldConfigs) {
+        this(webReader, fieldConfigs, false);
+    }
+
+    /**
+     * Creates a converter. If <code>declaredOnly</code>, headings without a
+     * field definition are not columns, so the row type is known from the
+     * definitions alone, before the page has been read.
+     */
+    public WebRowConverter(WebReader webReader,
+        ArrayList<Map<String, Object>> fieldConfigs, boolean declaredOnly) {
         this.webReader = webReader;
         this.fieldConfigs = fieldConfigs;
+        this.declaredOnly = declaredOnly;
     }
 
     // initialize() - combine HTML table header information with field definitions
     //      to initialize the table reader
     // NB:  object initialization is deferred to avoid unnecessary URL reads
     private void initialize() {
+        if (!this.initialized) {
+            initializeFields(null);
+        }
+    }
+
+    /**
+     * Initializes the field definitions from headings saved earlier (see
+     * {@link WebSnapshot}) rather than from the page, unless they have
+     * already been initialized.
+     */
+    void initialize(List<String> headings) {
+        if (!this.initialized) {
+            initializeFields(headings);
+        }
+    }
+
+    /** Returns a converter with the same field definitions and statistics,
+     * whose fields are not yet initialized; for when the headings they were
+     * defined against turn out to be out of date. */
+    WebRowConverter copy() {
+        WebRowConverter converter = new WebRowConverter(this.webReader,
+            this.fieldConfigs, this.declaredOnly);
+        converter.setStats(this.stats);
+        return converter;
+    }
+
+    /** Records the time spent converting each field, and its failures, in a
+     * table's statistics; call before the fields are initialized. */
+    void setStats(WebStats stats) {
+        this.stats = stats;
+    }
+
+    /** Whether the fields have been defined, from the page or from saved
+     * headings. */
+    boolean isInitialized() {
+        return this.initialized;
+    }
+
+    boolean isDeclaredOnly() {
+        return this.declaredOnly;
+    }
+
+    /** The texts of the headings the fields were defined against. */
+    List<String> getHeadings() {
+        initialize();
+        return this.headings;
+    }
+
+    // the texts of a page's headings
+    static List<String> texts(Elements headings) {
+        List<String> texts = new ArrayList<String>();
+        for (Element th : headings) {
+            texts.add(th.text());
+        }
+        return texts;
+    }
+
+    // synchronized, and published through the volatile flag, so that
+    // concurrent scans share one fully built set of field definitions
+    private synchronized void initializeFields(List<String> savedHeadings) {
         if (this.initialized) {
             return;
         }
         try {
             this.fields = new ArrayList<FieldDef>();
-            final Elements headerElements = this.webReader.getHeadings();
+            this.headings = (savedHeadings != null) ? savedHeadings
+                : texts(this.webReader.getHeadings());
 
             // create a name to index map for HTML table elements
             final Map<String, Integer> headerMap = new HashMap();
             int i = 0;
-            for (Element th : headerElements) {
-                String heading = th.text();
+            for (String heading : this.headings) {
                 if (headerMap.containsKey(heading)) {
                     throw new Exception("duplicate heading: '" + heading + "'");
                 }
@@ -136,11 +209,23 @@ public class WebRowConverter {
 
             // pick up any data elements not explicitly defined
             for (String name : headerMap.keySet()) {
-                if (!sources.contains(name) && !colNames.contains(name)) {
+                if (!this.declaredOnly
+                    && !sources.contains(name) && !colNames.contains(name)) {
                     addFieldDef(name, null, null, headerMap.get(name).intValue());
                 }
             }
 
+            if (this.stats != null) {
+                List<String> names = new ArrayList<String>();
+                for (FieldDef field : this.fields) {
+                    names.add(field.getName());
+                }
+                WebStats.Column[] columns = this.stats.setColumns(names);
+                for (int j = 0; j < columns.length; j++) {
+                    this.fields.get(j).stats = columns[j];
+                }
+            }
+
         // ToDo
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -150,37 +235,131 @@ public class WebRowConverter {
 
     // add another field definition to the WebRowConverter during initialization
     private void addFieldDef(String name, WebFieldType type,
-        Map<String, Object> config, int sourceCol) {
+        Map<String, Object> config, int sourceCol) throws WebReaderException {
         this.fields.add(new FieldDef(name, type, config, sourceCol));
     }
 
     // convert a row of JSoup Elements to an array of java objects
     public Object toRow(Elements rowElements, int[] projection) {
+        return toRow(rowElements, projection, null);
+    }
+
+    // same, counting the cells in a scan's tally; with none, each cell is
+    // added to the shared counters at once
+    Object toRow(Elements rowElements, int[] projection, WebStats.Tally tally) {
         initialize();
         final Object[] objects = new Object[projection.length];
 
         for (int i = 0; i < projection.length; i++) {
             int field = projection[i];
-            objects[i] = this.fields.get(field).convert(rowElements);
+            objects[i] = this.fields.get(field).convert(rowElements, tally, field);
         }
         return objects;
     }
 
+    // convert a single field of a row
+    Object convertField(Elements rowElements, int field, WebStats.Tally tally) {
+        initialize();
+        return this.fields.get(field).convert(rowElements, tally, field);
+    }
+
+    // rough relative cost of extracting and converting a field
+    int cost(int field) {
+        initialize();
+        return this.fields.get(field).cost();
+    }
+
     public int width() {
+        if (isDeferred()) {
+            return declaredConfigs().size();
+        }
         initialize();
         return this.fields.size();
     }
 
-    public RelDataType getRowType(JavaTypeFactory typeFactory) {
+    // index of the field with a given column name, or -1
+    int fieldIndex(String name) {
+        if (isDeferred()) {
+            return declaredIndex(name);
+        }
         initialize();
+        for (int i = 0; i < this.fields.size(); i++) {
+            if (this.fields.get(i).getName().equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // index of a declared field with a given column name, or -1; declared
+    // fields come first, so this is known without reading the page
+    int declaredIndex(String name) {
+        List<Map<String, Object>> configs = declaredConfigs();
+        for (int i = 0; i < configs.size(); i++) {
+            if (declaredName(configs.get(i)).equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // type of the i-th field; null means an untyped (string) field
+    WebFieldType getFieldType(int i) {
+        if (isDeferred()) {
+            return declaredType(declaredConfigs().get(i));
+        }
+        initialize();
+        return this.fields.get(i).getType();
+    }
+
+    // whether the fields are known from their definitions but not yet
+    // matched to the page's headings
+    private boolean isDeferred() {
+        return this.declaredOnly && !this.initialized;
+    }
+
+    // the field definitions that are not skipped
+    private List<Map<String, Object>> declaredConfigs() {
+        List<Map<String, Object>> configs = new ArrayList<Map<String, Object>>();
+        if (this.fieldConfigs != null) {
+            for (Map<String, Object> fieldConfig : this.fieldConfigs) {
+                if (!Boolean.parseBoolean((String) fieldConfig.get("skip"))) {
+                    configs.add(fieldConfig);
+                }
+            }
+        }
+        return configs;
+    }
+
+    private static String declaredName(Map<String, Object> fieldConfig) {
+        String name = (String) fieldConfig.get("name");
+        return (name != null) ? name : (String) fieldConfig.get("th");
+    }
+
+    private static WebFieldType declaredType(Map<String, Object> fieldConfig) {
+        String typeString = (String) fieldConfig.get("type");
+        return (typeString == null) ? null : WebFieldType.of(typeString);
+    }
+
+    public RelDataType getRowType(JavaTypeFactory typeFactory) {
         List<String> names = new ArrayList<String>();
         List<RelDataType> types = new ArrayList<RelDataType>();
+        List<WebFieldType> fieldTypes = new ArrayList<WebFieldType>();
+        if (isDeferred()) {
+            for (Map<String, Object> fieldConfig : declaredConfigs()) {
+                names.add(declaredName(fieldConfig));
+                fieldTypes.add(declaredType(fieldConfig));
+            }
+        } else {
+            initialize();
+            for (FieldDef f : this.fields) {
+                names.add(f.getName());
+                fieldTypes.add(f.getType());
+            }
+        }
 
-        // iterate through FieldDefs, populating names and types
-        for (FieldDef f : this.fields) {
-            names.add(f.getName());
-
-            WebFieldType fieldType = f.getType();
+        // populate the types
+        for (WebFieldType fieldType : fieldTypes) {
             RelDataType type;
 
             if (fieldType == null) {
@@ -201,6 +380,11 @@ public class WebRowConverter {
     }
 
     // responsible for parsing an HTML table cell
+    //
+    // The configuration is compiled once: the selector is parsed into an
+    // Evaluator (or skipped, for the default "*"), and the patterns are
+    // compiled. Each thread keeps its own traversal state, Matchers and
+    // buffer, so reading a cell allocates little beyond its text.
     private class CellReader {
         private String type;
         private String selector;
@@ -212,6 +396,15 @@ public class WebRowConverter {
         private Pattern matchPattern;
         private Integer matchSeq;
 
+        // null means every element, as "*" does
+        private Evaluator evaluator;
+        private final ThreadLocal<Extraction> extractions =
+            new ThreadLocal<Extraction>() {
+                protected Extraction initialValue() {
+                    return new Extraction();
+                }
+            };
+
         public CellReader() {
         }
 
@@ -230,6 +423,10 @@ public class WebRowConverter {
                 this.selector = "*";
             }
 
+            if (!this.selector.equals("*")) {
+                this.evaluator = QueryParser.parse(this.selector);
+            }
+
             if (this.replaceText != null) {
                 this.replacePattern = Pattern.compile(this.replaceText);
             }
@@ -248,43 +445,127 @@ public class WebRowConverter {
 
         }
 
-        public String read(Element cell) {
-            ArrayList<String> cellText = new ArrayList();
-
-            if (this.selectedElement != null) {
-                cellText.add(cell.select(this.selector)
-                                 .get(this.selectedElement.intValue()).ownText());
-            } else {
-                for (Element child : cell.select(this.selector)) {
-                    //String tagName = child.tag().getName();
-                    cellText.add(child.ownText());
-                }
+        // selectors and patterns each cost about as much as reading the text
+        int cost() {
+            int cost = 1;
+            if (!this.selector.equals("*")) {
+                cost += 2;
+            }
+            if (this.replacePattern != null) {
+                cost += 2;
+            }
+            if (this.matchPattern != null) {
+                cost += 2;
             }
+            return cost;
+        }
 
-            String cellString = Joiner.on(" ").join(cellText).trim();
+        public String read(Element cell) {
+            final Extraction extraction = this.extractions.get();
+            CharSequence cellText = extraction.extract(cell);
 
             // replace
             if (this.replacePattern != null) {
-                Matcher m = this.replacePattern.matcher(cellString);
-                cellString = m.replaceAll(this.replaceWith);
+                cellText = extraction.replace.reset(cellText)
+                    .replaceAll(this.replaceWith);
             }
 
-            // match
+            // match; stop at the matchSeq-th match
             if (this.matchPattern == null) {
-                return cellString;
-            } else {
-                List<String> allMatches = new ArrayList<String>();
-                Matcher m = this.matchPattern.matcher(cellString);
-                while (m.find()) {
-                    allMatches.add(m.group());
+                return cellText.toString();
+            }
+            final Matcher m = extraction.match.reset(cellText);
+            final int seq = this.matchSeq.intValue();
+            int found = 0;
+            while (m.find()) {
+                if (found++ == seq) {
+                    return m.group();
+                }
+            }
+            if (found == 0) {
+                return null;
+            }
+            throw new IndexOutOfBoundsException("Index: " + seq + ", Size: " + found);
+        }
+
+        // per-thread state for reading cells
+        private class Extraction implements NodeVisitor {
+            final NodeTraversor traversor = new NodeTraversor(this);
+            final StringBuilder buf = new StringBuilder();
+            final Matcher replace = (replacePattern == null)
+                ? null : replacePattern.matcher("");
+            final Matcher match = (matchPattern == null)
+                ? null : matchPattern.matcher("");
+            Element root;
+            String first;
+            int count;
+
+            // the own text of the selected elements, in document order, joined
+            // by spaces and trimmed; or of the selectedElement-th of them
+            CharSequence extract(Element cell) {
+                this.root = cell;
+                this.first = null;
+                this.count = 0;
+                this.buf.setLength(0);
+                this.traversor.traverse(cell);
+                this.root = null;
+
+                if (selectedElement != null) {
+                    if (this.first == null) {
+                        throw new IndexOutOfBoundsException("Index: "
+                            + selectedElement + ", Size: " + this.count);
+                    }
+                    return this.first;
+                }
+                if (this.count <= 1) {
+                    // ownText is already trimmed
+                    return (this.first == null) ? "" : this.first;
+                }
+                return trim(this.buf);
+            }
+
+            public void head(Node node, int depth) {
+                if (!(node instanceof Element)) {
+                    return;
                 }
-                if (allMatches.size() != 0) {
-                    return allMatches.get(this.matchSeq.intValue());
+                Element element = (Element) node;
+                if (evaluator != null && !evaluator.matches(this.root, element)) {
+                    return;
+                }
+                if (selectedElement != null) {
+                    if (this.count++ == selectedElement.intValue()) {
+                        this.first = element.ownText();
+                    }
+                    return;
+                }
+                String text = element.ownText();
+                if (this.count == 0) {
+                    this.first = text;
                 } else {
-                    return null;
+                    if (this.count == 1) {
+                        this.buf.append(this.first);
+                    }
+                    this.buf.append(' ').append(text);
                 }
+                this.count++;
             }
+
+            public void tail(Node node, int depth) {
+            }
+        }
+    }
+
+    // trims a buffer, as String.trim() would
+    private static CharSequence trim(StringBuilder buf) {
+        int start = 0;
+        int end = buf.length();
+        while (start < end && buf.charAt(start) <= ' ') {
+            start++;
         }
+        while (end > start && buf.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return (start == 0 && end == buf.length()) ? buf : buf.subSequence(start, end);
     }
 
     // responsible for managing field (column) definition
@@ -295,33 +576,93 @@ public class WebRowConverter {
         Map<String, Object> config;
         CellReader cellReader;
         int cellSeq;
+        WebNumberParser numberParser;
+        WebDateParser dateParser;
+        WebStats.Column stats;
 
         public FieldDef(String name, WebFieldType type,
-            Map<String, Object> config, int cellSeq) {
+            Map<String, Object> config, int cellSeq) throws WebReaderException {
             this.name = name;
             this.type = type;
             this.config = config;
             this.cellReader = new CellReader(config);
             this.cellSeq = cellSeq;
+
+            String locale = null;
+            boolean lenient = false;
+            Object format = null;
+            if (config != null) {
+                locale = (String) config.get("locale");
+                Boolean b = (Boolean) config.get("lenient");
+                lenient = (b != null) && b.booleanValue();
+                format = config.get("format");
+            }
+            this.numberParser = WebNumberParser.of(locale, lenient);
+            if (type == WebFieldType.DATE || type == WebFieldType.TIME
+                || type == WebFieldType.TIMESTAMP) {
+                this.dateParser = WebDateParser.of(format, locale, type);
+            }
         }
 
-        public Object convert(Elements row) {
-            return toObject(this.type, this.cellReader.read(row.get(this.cellSeq)));
+        public Object convert(Elements row, WebStats.Tally tally, int field) {
+            if (this.stats == null) {
+                return toObject(this.type, this.cellReader.read(row.get(this.cellSeq)));
+            }
+            if (!this.stats.isTimed()) {
+                boolean converted = false;
+                try {
+                    String text = this.cellReader.read(row.get(this.cellSeq));
+                    Object value = toObject(this.type, text);
+                    converted = value != null || text == null || text.length() == 0;
+                    return value;
+                } finally {
+                    if (tally != null) {
+                        tally.converted(this.stats, field, !converted);
+                    } else {
+                        this.stats.converted(!converted);
+                    }
+                }
+            }
+            long start = System.nanoTime();
+            long extracted = -1L;
+            boolean converted = false;
+            try {
+                String text = this.cellReader.read(row.get(this.cellSeq));
+                extracted = System.nanoTime();
+                Object value = toObject(this.type, text);
+                converted = value != null || text == null || text.length() == 0;
+                return value;
+            } finally {
+                long end = System.nanoTime();
+                if (extracted < 0) {
+                    extracted = end;
+                }
+                this.stats.converted(extracted - start, end - extracted, !converted);
+            }
         }
 
         public String getName() {
             return this.name;
         }
 
-        public WebFieldType getType() {
-            return this.type;
+        int cost() {
+            if (this.type == null) {
+                return this.cellReader.cost();
+            }
+            switch (this.type) {
+            case STRING:
+                return this.cellReader.cost();
+            case DATE:
+            case TIME:
+            case TIMESTAMP:
+                return this.cellReader.cost() + 8;
+            default:
+                return this.cellReader.cost() + 1;
+            }
         }
 
-        private java.util.Date parseDate(String string) {
-            Parser parser = new Parser();
-            List groups = parser.parse(string);
-            DateGroup group = (DateGroup) groups.get(0);
-            return group.getDates().get(0);
+        public WebFieldType getType() {
+            return this.type;
         }
 
         private Object toObject(WebFieldType fieldType, String string) {
@@ -345,55 +686,26 @@ public class WebRowConverter {
                 return Byte.parseByte(string);
 
             case SHORT:
-
-                try {
-                    return NumberFormat.getIntegerInstance().parse(string)
-                                       .shortValue();
-                } catch (ParseException e) {
-                    return null;
-                }
-
             case INT:
-
-                try {
-                    return NumberFormat.getIntegerInstance().parse(string)
-                                       .intValue();
-                } catch (ParseException e) {
-                    return null;
-                }
-
             case LONG:
-
-                try {
-                    return NumberFormat.getInstance().parse(string).longValue();
-                } catch (ParseException e) {
-                    return null;
-                }
-
             case FLOAT:
-
-                try {
-                    return NumberFormat.getInstance().parse(string).floatValue();
-                } catch (ParseException e) {
-                    return null;
-                }
-
             case DOUBLE:
-
-                try {
-                    return NumberFormat.getInstance().parse(string).doubleValue();
-                } catch (ParseException e) {
-                    return null;
-                }
+                return this.numberParser.parse(string, fieldType);
 
             case DATE:
-                return new java.sql.Date(parseDate(string).getTime());
-
             case TIME:
-                return new java.sql.Time(parseDate(string).getTime());
-
             case TIMESTAMP:
-                return new java.sql.Timestamp(parseDate(string).getTime());
+                java.util.Date date = this.dateParser.parse(string);
+                if (date == null) {
+                    return null;
+                }
+                if (fieldType == WebFieldType.DATE) {
+                    return new java.sql.Date(date.getTime());
+                }
+                if (fieldType == WebFieldType.TIME) {
+                    return new java.sql.Time(date.getTime());
+                }
+                return new java.sql.Timestamp(date.getTime());
             }
         }
     }
@@ -25,13 +25,27 @@ import com.google.common.collect.ImmutableMap;
 import java.io.*;
 
 import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Schema mapped onto a set of URLs / HTML tables. Each table in the schema
  * is an HTML table on a URL.
+ *
+ * <p>The schema also holds a <code>WEB_STATS</code> table of statistics of
+ * the work done for its tables (see {@link WebStatsTable}), unless the model
+ * defines a table of that name.</p>
  */
 public class WebSchema extends AbstractSchema {
+    private static final Logger LOGGER = Logger.getLogger(WebSchema.class.getName());
+
+    private final String name;
     private ArrayList<Map<String, Object>> tables;
+    private boolean smart;
+    private boolean profiling;
+    private Map<String, Table> tableMap;
+    private WebPrefetcher prefetcher;
+    private WebMetadataCache metadata;
 
     /**
      * Creates an HTML tables schema.
@@ -45,27 +59,76 @@ public class WebSchema extends AbstractSchema {
     public WebSchema(SchemaPlus parentSchema, String name,
         ArrayList<Map<String, Object>> tables, boolean smart) {
         super(parentSchema, name);
+        this.name = name;
         this.tables = tables;
+        this.smart = smart;
+    }
+
+    /**
+     * Sets how the schema's pages are prefetched. An eager prefetcher starts
+     * at once; a lazy one when the tables are first looked up.
+     */
+    void setPrefetcher(WebPrefetcher prefetcher) {
+        this.prefetcher = prefetcher;
+        if (prefetcher.getMode() == WebPrefetcher.Mode.EAGER) {
+            prefetcher.start(this.tables);
+        }
+    }
+
+    /** Logs a runtime profile of every scan of the schema's tables (see
+     * {@link WebProfile}). */
+    void setProfiling(boolean profiling) {
+        this.profiling = profiling;
+    }
+
+    /** Keeps the tables' headings and row counts between runs, so that they
+     * are planned without fetching (see {@link WebMetadataCache}). */
+    void setMetadataCache(WebMetadataCache metadata) {
+        this.metadata = metadata;
     }
 
     @Override
-    protected Map<String, Table> getTableMap() {
+    protected synchronized Map<String, Table> getTableMap() {
+
+        // build the tables once; readers hold on to what they have read
+        if (this.tableMap != null) {
+            return this.tableMap;
+        }
+
+        if (this.prefetcher != null) {
+            this.prefetcher.start(this.tables);
+        }
 
         final ImmutableMap.Builder<String, Table> builder = ImmutableMap.builder();
+        final List<WebStats> stats = new ArrayList<WebStats>();
+        boolean statsNamed = false;
 
         for (Map<String, Object> tableDef : this.tables) {
             String tableName = (String) tableDef.get("name");
+            statsNamed |= WebStatsTable.NAME.equals(tableName);
 
             try {
-                WebTable table = new WebTable(tableDef, null);
+                WebTable table = this.smart
+                    ? new WebSmartTable(tableDef, null)
+                    : new WebTable(tableDef, null);
+                table.setProfiling(this.profiling);
+                if (this.metadata != null) {
+                    table.setMetadataCache(this.metadata);
+                }
                 builder.put(tableName, table);
+                table.getStats().register(this.name);
+                stats.add(table.getStats());
             } catch (Exception e) {
-                e.printStackTrace();
-                System.out.println("Unable to instantiate table for: " + tableName);
+                LOGGER.log(Level.WARNING, "Unable to instantiate table for: "
+                    + tableName, e);
             }
         }
+        if (!statsNamed) {
+            builder.put(WebStatsTable.NAME, new WebStatsTable(stats));
+        }
 
-        return builder.build();
+        this.tableMap = builder.build();
+        return this.tableMap;
     }
 }
 // End WebSchema.java
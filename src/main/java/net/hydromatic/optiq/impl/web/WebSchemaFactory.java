@@ -38,9 +38,32 @@ public class WebSchemaFactory implements SchemaFactory {
         Map<String, Object> operand) {
         ArrayList tables = (ArrayList) operand.get("tables");
         Boolean smart = (Boolean) operand.get("smart");
+        Boolean profile = (Boolean) operand.get("profile");
 
-        return new WebSchema(parentSchema, name, tables,
+        // the page cache is process-wide; any schema may tune it
+        WebPrefetcher prefetcher;
+        WebMetadataCache metadata;
+        try {
+            WebPageCache.instance().configure(
+                (Map<String, Object>) operand.get("cache"));
+            WebPageCache.instance().configureFetcher(
+                (Map<String, Object>) operand.get("fetch"));
+            prefetcher = WebPrefetcher.of(
+                (Map<String, Object>) operand.get("prefetch"));
+            metadata = WebMetadataCache.of(
+                (Map<String, Object>) operand.get("metadata"));
+        } catch (WebReaderException e) {
+            throw new RuntimeException(e);
+        }
+
+        WebSchema schema = new WebSchema(parentSchema, name, tables,
             (smart != null) && smart);
+        schema.setPrefetcher(prefetcher);
+        schema.setProfiling((profile != null) && profile);
+        if (metadata != null) {
+            schema.setMetadataCache(metadata);
+        }
+        return schema;
     }
 }
 // End WebSchemaFactory.java
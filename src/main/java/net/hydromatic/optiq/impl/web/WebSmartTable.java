@@ -0,0 +1,54 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import org.eigenbase.rel.RelNode;
+
+import org.eigenbase.relopt.RelOptTable;
+
+import org.eigenbase.reltype.RelProtoDataType;
+
+import java.util.Map;
+
+/**
+ * Refinement of {@link WebTable} that plans as a {@link WebTableScan}, so
+ * that rules can push work (such as projections) into the scan.
+ *
+ * <p>Trivially modified from CsvSmartTable</p>
+ */
+class WebSmartTable extends WebTable {
+    /** Creates a WebSmartTable. */
+    WebSmartTable(Map<String, Object> tableDef, RelProtoDataType protoRowType)
+        throws Exception {
+        super(tableDef, protoRowType);
+    }
+
+    public String toString() {
+        return "WebSmartTable";
+    }
+
+    public RelNode toRel(RelOptTable.ToRelContext context,
+        RelOptTable relOptTable) {
+        // Request all fields.
+        final int fieldCount = relOptTable.getRowType().getFieldCount();
+        final int[] fields = WebEnumerator.identityList(fieldCount);
+        return new WebTableScan(context.getCluster(), relOptTable, this, fields);
+    }
+}
+
+// End WebSmartTable.java
@@ -0,0 +1,193 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A materialized table saved to a file, so that after a restart the table
+ * can answer queries before its page has been fetched again.
+ *
+ * <p>The file holds the URL and fetch time of the page, the headings the
+ * fields were defined against, and the typed columns (see
+ * {@link WebColumn#write}). It is read into memory in one pass and closed at
+ * once, so nothing holds the file open (on Windows, an open file can be
+ * neither replaced nor deleted). A file that is missing, damaged, of another
+ * format version or for another URL is ignored.</p>
+ */
+class WebSnapshot {
+    // "WEBS"
+    private static final int MAGIC = 0x57454253;
+    private static final int VERSION = 1;
+
+    private final String url;
+    private final long fetchTime;
+    private final List<String> headings;
+    private final WebColumnStore store;
+
+    private WebSnapshot(String url, long fetchTime, List<String> headings,
+        WebColumnStore store) {
+        this.url = url;
+        this.fetchTime = fetchTime;
+        this.headings = headings;
+        this.store = store;
+    }
+
+    String getUrl() {
+        return this.url;
+    }
+
+    /** When the page the columns were converted from was fetched. */
+    long getFetchTime() {
+        return this.fetchTime;
+    }
+
+    List<String> getHeadings() {
+        return this.headings;
+    }
+
+    WebColumnStore getStore() {
+        return this.store;
+    }
+
+    /** Saves a store built from a page; the file is written under another
+     * name and renamed into place, so readers never see half of it. */
+    static void write(File file, WebColumnStore store, List<String> headings)
+        throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create snapshot directory " + directory);
+        }
+        File tmp = File.createTempFile(file.getName(), ".tmp", directory);
+        boolean written = false;
+        try {
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeString(out, store.getSource().getUrl());
+                out.writeLong(store.getSource().getFetchTime());
+                out.writeInt(headings.size());
+                for (String heading : headings) {
+                    writeString(out, heading);
+                }
+                out.writeInt(store.getRowCount());
+                out.writeInt(store.getColumnCount());
+                for (int i = 0; i < store.getColumnCount(); i++) {
+                    WebColumn column = store.getColumn(i);
+                    writeString(out, column.getType().name());
+                    column.write(out);
+                }
+            } finally {
+                out.close();
+            }
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Cannot rename " + tmp + " to " + file);
+            }
+            written = true;
+        } finally {
+            if (!written) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /** Reads the snapshot of a URL, or returns null if there is no usable
+     * one. */
+    static WebSnapshot read(File file, String url) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    return null;
+                }
+                String savedUrl = readString(in);
+                if (!savedUrl.equals(url)) {
+                    return null;
+                }
+                long fetchTime = in.readLong();
+                List<String> headings = new ArrayList<String>();
+                for (int n = in.readInt(); n > 0; n--) {
+                    headings.add(readString(in));
+                }
+                int rowCount = in.readInt();
+                WebColumn[] columns =
+                    new WebColumn[WebColumn.readLength(in, 4)];
+                for (int i = 0; i < columns.length; i++) {
+                    WebFieldType type = WebFieldType.valueOf(readString(in));
+                    columns[i] = WebColumn.read(in, type, rowCount);
+                }
+                return new WebSnapshot(savedUrl, fetchTime, headings,
+                    WebColumnStore.restore(columns, rowCount));
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // a bad type name, or columns that do not fit together
+            return null;
+        }
+    }
+
+    /** Whether the columns have the types a converter gives its fields. */
+    boolean matches(WebRowConverter converter) {
+        if (converter.width() != this.store.getColumnCount()) {
+            return false;
+        }
+        for (int i = 0; i < converter.width(); i++) {
+            WebFieldType type = converter.getFieldType(i);
+            if (this.store.getColumn(i).getType()
+                != ((type == null) ? WebFieldType.STRING : type)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeString(DataOutputStream out, String s)
+        throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[WebColumn.readLength(in, 1)];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
+
+// End WebSnapshot.java
@@ -0,0 +1,56 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import net.hydromatic.optiq.Statistic;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Statistics of a web table: its row count, if known, and the column sets
+ * known to be unique, either declared in the model or found while
+ * materializing the table.
+ */
+class WebStatistic implements Statistic {
+    private final Double rowCount;
+    private final List<BitSet> keys;
+
+    WebStatistic(Double rowCount, List<BitSet> keys) {
+        this.rowCount = rowCount;
+        this.keys = keys;
+    }
+
+    public Double getRowCount() {
+        return this.rowCount;
+    }
+
+    // any superset of a key is a key
+    public boolean isKey(BitSet columns) {
+        for (BitSet key : this.keys) {
+            BitSet missing = (BitSet) key.clone();
+            missing.andNot(columns);
+            if (missing.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
+
+// End WebStatistic.java
@@ -0,0 +1,381 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import java.lang.management.ManagementFactory;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Counters of the work done for one table: fetching its pages, parsing them
+ * and locating the table, converting each column, and the rows returned.
+ *
+ * <p>Scans update the counters without locking. They are read through JMX,
+ * as an MBean named
+ * <code>net.hydromatic.optiq.impl.web:type=WebStats,schema=S,table=T</code>,
+ * and from SQL through the schema's <code>WEB_STATS</code> table (see
+ * {@link WebStatsTable}).</p>
+ *
+ * <p>Cells are always counted, but timed only while {@link #setTimed} is on
+ * (it is for tables that are profiled), since that takes two clock reads per
+ * cell. Untimed counts are kept by each scan in a {@link Tally} and added to
+ * the shared counters when it ends, as rows are.</p>
+ */
+class WebStats implements WebStatsMBean {
+    private static final Logger LOGGER = Logger.getLogger(WebStats.class.getName());
+    private static final Column[] NO_COLUMNS = new Column[0];
+
+    private final String tableName;
+    private volatile String schemaName;
+    private final String url;
+    private volatile Column[] columns = NO_COLUMNS;
+    private volatile int lastStatus;
+    private volatile boolean timed = false;
+
+    private final AtomicLong fetches = new AtomicLong();
+    private final AtomicLong fetchFailures = new AtomicLong();
+    private final AtomicLong fetchBytes = new AtomicLong();
+    private final AtomicLong fetchNanos = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong parses = new AtomicLong();
+    private final AtomicLong parseNanos = new AtomicLong();
+    private final AtomicLong locates = new AtomicLong();
+    private final AtomicLong locateNanos = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+
+    WebStats(String tableName, String url) {
+        this.tableName = tableName;
+        this.url = url;
+    }
+
+    /** Publishes the counters as an MBean, replacing any of the same name. */
+    void register(String schemaName) {
+        this.schemaName = schemaName;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("net.hydromatic.optiq.impl.web:"
+                + "type=WebStats,schema=" + ObjectName.quote(schemaName)
+                + ",table=" + ObjectName.quote(String.valueOf(this.tableName)));
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new StandardMBean(this, WebStatsMBean.class), name);
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Cannot register statistics of table "
+                + this.tableName, e);
+        }
+    }
+
+    /** Names the columns whose conversions are counted, and returns their
+     * counters. */
+    Column[] setColumns(List<String> names) {
+        Column[] columns = new Column[names.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new Column(this, names.get(i));
+        }
+        this.columns = columns;
+        return columns;
+    }
+
+    Column[] getColumns() {
+        return this.columns;
+    }
+
+    /** Whether the time spent on each cell is measured as well as counted. */
+    void setTimed(boolean timed) {
+        this.timed = timed;
+    }
+
+    boolean isTimed() {
+        return this.timed;
+    }
+
+    void fetched(long bytes, long nanos) {
+        this.fetches.incrementAndGet();
+        this.fetchBytes.addAndGet(bytes);
+        this.fetchNanos.addAndGet(nanos);
+    }
+
+    /** Records the HTTP status of a response. */
+    void status(int status) {
+        this.lastStatus = status;
+    }
+
+    void fetchFailed(long nanos) {
+        this.fetches.incrementAndGet();
+        this.fetchFailures.incrementAndGet();
+        this.fetchNanos.addAndGet(nanos);
+    }
+
+    void cacheHit() {
+        this.cacheHits.incrementAndGet();
+    }
+
+    void cacheMiss() {
+        this.cacheMisses.incrementAndGet();
+    }
+
+    void parsed(long nanos) {
+        this.parses.incrementAndGet();
+        this.parseNanos.addAndGet(nanos);
+    }
+
+    void located(long nanos) {
+        this.locates.incrementAndGet();
+        this.locateNanos.addAndGet(nanos);
+    }
+
+    void returned(long rows) {
+        this.rows.addAndGet(rows);
+    }
+
+    public String getSchemaName() {
+        return this.schemaName;
+    }
+
+    public String getTableName() {
+        return this.tableName;
+    }
+
+    public String getUrl() {
+        return this.url;
+    }
+
+    public long getFetches() {
+        return this.fetches.get();
+    }
+
+    public long getFetchFailures() {
+        return this.fetchFailures.get();
+    }
+
+    public long getFetchBytes() {
+        return this.fetchBytes.get();
+    }
+
+    public double getFetchMillis() {
+        return millis(this.fetchNanos.get());
+    }
+
+    public int getLastStatus() {
+        return this.lastStatus;
+    }
+
+    public long getCacheHits() {
+        return this.cacheHits.get();
+    }
+
+    public long getCacheMisses() {
+        return this.cacheMisses.get();
+    }
+
+    public long getParses() {
+        return this.parses.get();
+    }
+
+    public double getParseMillis() {
+        return millis(this.parseNanos.get());
+    }
+
+    public long getLocates() {
+        return this.locates.get();
+    }
+
+    public double getLocateMillis() {
+        return millis(this.locateNanos.get());
+    }
+
+    public long getRows() {
+        return this.rows.get();
+    }
+
+    public String[] getColumnNames() {
+        Column[] columns = this.columns;
+        String[] names = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            names[i] = columns[i].name;
+        }
+        return names;
+    }
+
+    public long[] getColumnConversions() {
+        Column[] columns = this.columns;
+        long[] values = new long[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = columns[i].conversions.get();
+        }
+        return values;
+    }
+
+    public long[] getColumnConversionFailures() {
+        Column[] columns = this.columns;
+        long[] values = new long[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = columns[i].failures.get();
+        }
+        return values;
+    }
+
+    public double[] getColumnConversionMillis() {
+        Column[] columns = this.columns;
+        double[] values = new double[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = millis(columns[i].nanos.get());
+        }
+        return values;
+    }
+
+    public void reset() {
+        AtomicLong[] counters = {
+            this.fetches, this.fetchFailures, this.fetchBytes, this.fetchNanos,
+            this.cacheHits, this.cacheMisses, this.parses, this.parseNanos,
+            this.locates, this.locateNanos, this.rows
+        };
+        for (AtomicLong counter : counters) {
+            counter.set(0L);
+        }
+        for (Column column : this.columns) {
+            column.conversions.set(0L);
+            column.failures.set(0L);
+            column.nanos.set(0L);
+            column.extractNanos.set(0L);
+        }
+        this.lastStatus = 0;
+    }
+
+    /** The table's counters, in the order fetches, fetch bytes, fetch
+     * nanoseconds, cache hits, cache misses, parses, parse nanoseconds,
+     * locates, locate nanoseconds. */
+    long[] counters() {
+        return new long[] {
+            this.fetches.get(), this.fetchBytes.get(), this.fetchNanos.get(),
+            this.cacheHits.get(), this.cacheMisses.get(), this.parses.get(),
+            this.parseNanos.get(), this.locates.get(), this.locateNanos.get()
+        };
+    }
+
+    static double millis(long nanos) {
+        return nanos / 1000000d;
+    }
+
+    /** Conversion counters of one column. A failure is a cell with text
+     * that did not convert to a value. Time is split between extracting the
+     * text (selector and patterns) and converting it to the column's type. */
+    static class Column {
+        private final WebStats owner;
+        final String name;
+        final AtomicLong conversions = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong nanos = new AtomicLong();
+        final AtomicLong extractNanos = new AtomicLong();
+
+        Column(WebStats owner, String name) {
+            this.owner = owner;
+            this.name = name;
+        }
+
+        boolean isTimed() {
+            return this.owner.timed;
+        }
+
+        void converted(boolean failed) {
+            add(1L, failed ? 1L : 0L);
+        }
+
+        void add(long conversions, long failures) {
+            this.conversions.addAndGet(conversions);
+            if (failures > 0) {
+                this.failures.addAndGet(failures);
+            }
+        }
+
+        void converted(long extractNanos, long convertNanos, boolean failed) {
+            this.conversions.incrementAndGet();
+            this.nanos.addAndGet(extractNanos + convertNanos);
+            this.extractNanos.addAndGet(extractNanos);
+            if (failed) {
+                this.failures.incrementAndGet();
+            }
+        }
+
+        /** The counters, in the order conversions, failures, extract
+         * nanoseconds, convert nanoseconds. */
+        long[] counters() {
+            long extract = this.extractNanos.get();
+            return new long[] {
+                this.conversions.get(), this.failures.get(), extract,
+                this.nanos.get() - extract
+            };
+        }
+    }
+
+    /** Conversions counted by one scan, in plain fields rather than counters
+     * shared by every thread, until {@link #flush()} adds them to their
+     * columns. Used by one thread at a time. */
+    static class Tally {
+        private Column[] columns = NO_COLUMNS;
+        private long[] conversions = new long[0];
+        private long[] failures = new long[0];
+
+        /** Counts a cell of the field'th column. */
+        void converted(Column column, int field, boolean failed) {
+            if (field >= this.columns.length) {
+                grow(field + 1);
+            }
+            this.columns[field] = column;
+            this.conversions[field]++;
+            if (failed) {
+                this.failures[field]++;
+            }
+        }
+
+        private void grow(int n) {
+            Column[] columns = new Column[n];
+            long[] conversions = new long[n];
+            long[] failures = new long[n];
+            System.arraycopy(this.columns, 0, columns, 0, this.columns.length);
+            System.arraycopy(this.conversions, 0, conversions, 0,
+                this.conversions.length);
+            System.arraycopy(this.failures, 0, failures, 0, this.failures.length);
+            this.columns = columns;
+            this.conversions = conversions;
+            this.failures = failures;
+        }
+
+        /** Adds the counts so far to their columns, and starts again. */
+        void flush() {
+            for (int i = 0; i < this.columns.length; i++) {
+                if (this.conversions[i] > 0) {
+                    this.columns[i].add(this.conversions[i], this.failures[i]);
+                    this.conversions[i] = 0;
+                    this.failures[i] = 0;
+                }
+            }
+        }
+    }
+}
+
+// End WebStats.java
@@ -0,0 +1,70 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+/**
+ * Management interface of the statistics of a web table (see
+ * {@link WebStats}). Times are in milliseconds.
+ */
+public interface WebStatsMBean {
+    String getSchemaName();
+
+    String getTableName();
+
+    /** URL of the table's (first) page. */
+    String getUrl();
+
+    long getFetches();
+
+    long getFetchFailures();
+
+    long getFetchBytes();
+
+    double getFetchMillis();
+
+    /** HTTP status of the last fetch; 0 before the first, or for a file. */
+    int getLastStatus();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    long getParses();
+
+    double getParseMillis();
+
+    long getLocates();
+
+    double getLocateMillis();
+
+    /** Rows returned by scans of the table. */
+    long getRows();
+
+    String[] getColumnNames();
+
+    long[] getColumnConversions();
+
+    long[] getColumnConversionFailures();
+
+    double[] getColumnConversionMillis();
+
+    /** Sets every counter back to zero. */
+    void reset();
+}
+
+// End WebStatsMBean.java
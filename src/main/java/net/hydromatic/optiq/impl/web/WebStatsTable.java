@@ -0,0 +1,168 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import net.hydromatic.optiq.*;
+import net.hydromatic.optiq.impl.AbstractTableQueryable;
+import net.hydromatic.optiq.impl.java.AbstractQueryableTable;
+import net.hydromatic.optiq.impl.java.JavaTypeFactory;
+import net.hydromatic.optiq.rules.java.EnumerableConvention;
+import net.hydromatic.optiq.rules.java.JavaRules;
+
+import net.hydromatic.linq4j.*;
+
+import org.eigenbase.rel.RelNode;
+
+import org.eigenbase.relopt.RelOptTable;
+
+import org.eigenbase.reltype.*;
+
+import org.eigenbase.util.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The <code>WEB_STATS</code> table of a {@link WebSchema}: the
+ * {@link WebStats} of each of the schema's tables, read when the table is
+ * scanned.
+ *
+ * <p>Each table has a row with a null <code>COLUMN_NAME</code>, holding its
+ * fetch, cache, parse, location and row counts and the conversion totals of
+ * all its columns; then there is a row for each column, holding just that
+ * column's conversion counts. Times are in milliseconds.</p>
+ */
+class WebStatsTable extends AbstractQueryableTable implements TranslatableTable {
+    static final String NAME = "WEB_STATS";
+
+    private static final String[] NAMES = {
+        "TABLE_NAME", "COLUMN_NAME", "URL", "FETCHES", "FETCH_FAILURES",
+        "FETCH_BYTES", "FETCH_MILLIS", "LAST_STATUS", "CACHE_HITS",
+        "CACHE_MISSES", "PARSES", "PARSE_MILLIS", "LOCATES", "LOCATE_MILLIS",
+        "ROWS_RETURNED", "CONVERSIONS", "CONVERSION_FAILURES", "CONVERSION_MILLIS"
+    };
+    private static final Class[] TYPES = {
+        String.class, String.class, String.class, Long.class, Long.class,
+        Long.class, Double.class, Integer.class, Long.class,
+        Long.class, Long.class, Double.class, Long.class, Double.class,
+        Long.class, Long.class, Long.class, Double.class
+    };
+
+    private final List<WebStats> stats;
+
+    WebStatsTable(List<WebStats> stats) {
+        super(Object[].class);
+        this.stats = stats;
+    }
+
+    public String toString() {
+        return "WebStatsTable";
+    }
+
+    public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+        final JavaTypeFactory javaTypeFactory = (JavaTypeFactory) typeFactory;
+        final List<String> names = new ArrayList<String>();
+        final List<RelDataType> types = new ArrayList<RelDataType>();
+        for (int i = 0; i < NAMES.length; i++) {
+            names.add(NAMES[i]);
+            types.add(javaTypeFactory.createJavaType(TYPES[i]));
+        }
+        return typeFactory.createStructType(Pair.zip(names, types));
+    }
+
+    // a snapshot of the counters, one row per table and per column
+    private List<Object[]> rows() {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for (WebStats table : this.stats) {
+            WebStats.Column[] columns = table.getColumns();
+            long conversions = 0;
+            long failures = 0;
+            long nanos = 0;
+            for (WebStats.Column column : columns) {
+                conversions += column.conversions.get();
+                failures += column.failures.get();
+                nanos += column.nanos.get();
+            }
+            rows.add(new Object[] {
+                table.getTableName(), null, table.getUrl(),
+                table.getFetches(), table.getFetchFailures(),
+                table.getFetchBytes(), table.getFetchMillis(),
+                table.getLastStatus(), table.getCacheHits(),
+                table.getCacheMisses(), table.getParses(),
+                table.getParseMillis(), table.getLocates(),
+                table.getLocateMillis(), table.getRows(),
+                conversions, failures, WebStats.millis(nanos)
+            });
+            for (WebStats.Column column : columns) {
+                Object[] row = new Object[NAMES.length];
+                row[0] = table.getTableName();
+                row[1] = column.name;
+                row[2] = table.getUrl();
+                row[15] = column.conversions.get();
+                row[16] = column.failures.get();
+                row[17] = WebStats.millis(column.nanos.get());
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    public <T> Queryable<T> asQueryable(QueryProvider queryProvider,
+        SchemaPlus schema, String tableName) {
+        return new AbstractTableQueryable<T>(queryProvider, schema, this,
+            tableName) {
+                public Enumerator<T> enumerator() {
+                    //noinspection unchecked
+                    return (Enumerator<T>) new ListEnumerator(rows());
+                }
+            };
+    }
+
+    public RelNode toRel(RelOptTable.ToRelContext context, RelOptTable relOptTable) {
+        return new JavaRules.EnumerableTableAccessRel(context.getCluster(),
+            context.getCluster().traitSetOf(EnumerableConvention.INSTANCE),
+            relOptTable, (Class) getElementType());
+    }
+
+    // enumerates a list of rows
+    private static class ListEnumerator implements Enumerator<Object> {
+        private final List<Object[]> rows;
+        private int i = -1;
+
+        ListEnumerator(List<Object[]> rows) {
+            this.rows = rows;
+        }
+
+        public Object current() {
+            return this.rows.get(this.i);
+        }
+
+        public boolean moveNext() {
+            return ++this.i < this.rows.size();
+        }
+
+        public void reset() {
+            this.i = -1;
+        }
+
+        public void close() {
+        }
+    }
+}
+
+// End WebStatsTable.java
@@ -32,9 +32,12 @@ import org.eigenbase.relopt.RelOptTable;
 
 import org.eigenbase.reltype.*;
 
+import org.eigenbase.util.Pair;
+
 import java.io.*;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 /**
@@ -46,9 +49,36 @@ import java.util.*;
 public class WebTable extends AbstractQueryableTable
     implements TranslatableTable {
 
+    // a column that is unique in fewer rows than this is not reported as a
+    // key; in a small table, any column may be unique by chance
+    static final int MIN_KEY_ROWS = 100;
+
     private final RelProtoDataType protoRowType;
     private WebReader reader;
-    private WebRowConverter converter;
+    // replaced if saved headings it was defined against turn out to be stale
+    private volatile WebRowConverter converter;
+    private boolean materialize = false;
+    private volatile WebColumnStore store;
+    // whether a background task keeps the table current
+    private final boolean refreshed;
+    private final WebPartitions partitions;
+    private final Number declaredRowCount;
+    private final List<List<String>> declaredKeys;
+    private final WebStats stats;
+    private volatile boolean profiling = false;
+    // where the converted columns are saved between runs, or null
+    private final File snapshotFile;
+    // whether a background fetch is replacing restored columns
+    private final AtomicBoolean restoring = new AtomicBoolean();
+    // where headings and row counts are kept between runs, or null
+    private WebMetadataCache metadata;
+    // row count when the table was last read, or -1
+    private int savedRowCount = -1;
+    // whether the fields were defined against saved headings that have not
+    // yet been checked against the page
+    private volatile boolean seeded = false;
+    // whether the page has been read, and any saved headings checked
+    private volatile boolean scanned = false;
 
     /** Creates a WebTable. */
     WebTable(Map<String, Object> tableDef, RelProtoDataType protoRowType) throws Exception {
@@ -57,28 +87,387 @@ public class WebTable extends AbstractQueryableTable
         this.protoRowType = protoRowType;
         ArrayList<Map<String, Object>> fieldConfigs =
                 (ArrayList<Map<String, Object>>) tableDef.get("fields");
-        String url = (String) tableDef.get("url");
-        String selector = (String) tableDef.get("selector");
-        Integer index = (Integer) tableDef.get("index");
-        this.reader = new WebReader(url, selector, index);
-        this.converter = new WebRowConverter(this.reader, fieldConfigs);
+        this.partitions = WebPartitions.of(tableDef);
+        this.reader = (this.partitions != null) ? this.partitions.firstReader()
+            : newReader((String) tableDef.get("url"), tableDef);
+        Boolean declaredOnly = (Boolean) tableDef.get("declaredOnly");
+        this.converter = new WebRowConverter(this.reader, fieldConfigs,
+            (declaredOnly != null) && declaredOnly.booleanValue());
+        this.stats = new WebStats((String) tableDef.get("name"),
+            this.reader.getUrl());
+        if (this.partitions != null) {
+            this.partitions.setStats(this.stats);
+        } else {
+            this.reader.setStats(this.stats);
+        }
+        this.converter.setStats(this.stats);
+        Boolean materialize = (Boolean) tableDef.get("materialize");
+        if (materialize != null) {
+            this.materialize = materialize.booleanValue();
+        }
+        this.declaredRowCount = (Number) tableDef.get("rowCount");
+        this.declaredKeys = (List<List<String>>) tableDef.get("keys");
+        Number refreshInterval = (Number) tableDef.get("refreshInterval");
+        if (refreshInterval != null && refreshInterval.longValue() <= 0) {
+            throw new WebReaderException("bad refreshInterval: "
+                + refreshInterval);
+        }
+        this.refreshed = refreshInterval != null;
+        String snapshot = (String) tableDef.get("snapshot");
+        if (snapshot != null && this.partitions != null) {
+            throw new WebReaderException("bad snapshot: '" + snapshot
+                + "' (partitioned tables are not saved)");
+        }
+        this.snapshotFile = (snapshot == null) ? null : new File(snapshot);
+        if (this.snapshotFile != null) {
+            this.materialize = true;
+            restore();
+        }
         //System.out.println("Created WebTable: " + (String) tableDef.get("name"));
 
+        // last, so that the refresher only ever sees a whole table
+        if (refreshInterval != null) {
+            WebRefresher.schedule(this, refreshInterval.longValue());
+        }
+
+    }
+
+    /** Creates a reader of a URL with the settings of a table definition. */
+    static WebReader newReader(String url, Map<String, Object> tableDef)
+        throws WebReaderException {
+        String selector = (String) tableDef.get("selector");
+        Integer index = (Integer) tableDef.get("index");
+        WebReader reader = new WebReader(url, selector, index);
+        reader.setHints(WebTableHints.of(tableDef));
+        WebPagination pagination = WebPagination.of(url,
+            (Map<String, Object>) tableDef.get("pagination"));
+        if (pagination != null) {
+            reader.setPagination(pagination);
+        }
+        Boolean streaming = (Boolean) tableDef.get("streaming");
+        if (streaming != null) {
+            reader.setStreaming(streaming.booleanValue());
+        }
+        // a table refreshed in the background never waits for the network,
+        // unless told how stale is too stale
+        Number maxStaleness = (Number) tableDef.get("maxStaleness");
+        if (maxStaleness != null) {
+            reader.setMaxStaleness(maxStaleness.longValue());
+        } else if (tableDef.get("refreshInterval") != null) {
+            reader.setMaxStaleness(Long.MAX_VALUE);
+        }
+        return reader;
     }
 
     public String toString() {
         return "WebTable";
     }
 
+    /** Counters of the work done for this table. */
+    WebStats getStats() {
+        return this.stats;
+    }
+
+    /** Logs a profile of each scan when it ends (see {@link WebProfile}). */
+    void setProfiling(boolean profiling) {
+        this.profiling = profiling;
+        this.stats.setTimed(profiling);
+    }
+
+    /**
+     * Keeps the table's headings and row count in a cache, and if the cache
+     * knows them from an earlier run, defines the fields against them so that
+     * queries are planned without fetching the page.
+     */
+    void setMetadataCache(WebMetadataCache metadata) {
+        this.metadata = metadata;
+        WebMetadataCache.Entry entry = metadata.load(this.reader.tableKey());
+        if (entry == null) {
+            return;
+        }
+        this.savedRowCount = entry.getRowCount();
+        if (!this.converter.isInitialized()) {
+            try {
+                this.converter.initialize(entry.getHeadings());
+            } catch (RuntimeException e) {
+                // the field definitions no longer fit; read the page
+                return;
+            }
+            this.seeded = true;
+        }
+    }
+
+    // number of fields, counting the partition column
+    private int width() {
+        return this.converter.width() + ((this.partitions == null) ? 0 : 1);
+    }
+
+    // index of the field with a given column name, or -1
+    private int fieldIndex(String name) {
+        if (this.partitions != null && this.partitions.getColumn().equals(name)) {
+            return this.converter.width();
+        }
+        return this.converter.fieldIndex(name);
+    }
+
+    /**
+     * Reports what is known about the table without fetching anything, since
+     * planning should not wait for the network: declared row count and keys,
+     * else the row count of a page or columns already in memory, else the
+     * row count saved by an earlier run.
+     */
     public Statistic getStatistic() {
-        return Statistics.UNKNOWN;
+        try {
+            WebColumnStore store = this.store;
+
+            // row count: declared, else counted, else as last read
+            Double rowCount = null;
+            if (this.declaredRowCount != null) {
+                rowCount = this.declaredRowCount.doubleValue();
+            } else {
+                // a partitioned table is not counted; that means every page
+                int rows = (store != null) ? store.getRowCount()
+                    : (this.partitions == null) ? this.reader.getCachedRowCount()
+                    : -1;
+                if (rows < 0) {
+                    rows = this.savedRowCount;
+                }
+                if (rows >= 0) {
+                    rowCount = (double) rows;
+                }
+            }
+
+            // keys: declared, plus unique columns of materialized columns big
+            // enough for that to mean something
+            List<BitSet> keys = new ArrayList<BitSet>();
+            if (this.declaredKeys != null) {
+                // columns picked up from the page's headings come after the
+                // declared ones; until the headings are at hand, keys on them
+                // are left out rather than fetched for
+                WebRowConverter converter = this.converter;
+                boolean headings = converter.isInitialized()
+                    || converter.isDeclaredOnly()
+                    || (this.partitions == null
+                        && this.reader.getCachedRowCount() >= 0);
+                for (List<String> names : this.declaredKeys) {
+                    BitSet key = new BitSet();
+                    for (String name : names) {
+                        int field = headings ? fieldIndex(name)
+                            : converter.declaredIndex(name);
+                        if (field < 0 && headings) {
+                            throw new WebReaderException("bad key column name: '"
+                                + name + "'");
+                        }
+                        if (field < 0) {
+                            key = null;
+                            break;
+                        }
+                        key.set(field);
+                    }
+                    if (key != null) {
+                        keys.add(key);
+                    }
+                }
+            }
+            if (store != null && store.getRowCount() >= MIN_KEY_ROWS) {
+                keys.addAll(store.getUniqueKeys());
+            }
+            return new WebStatistic(rowCount, keys);
+        } catch (WebReaderException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     public RelDataType getRowType(RelDataTypeFactory typeFactory) {
         if (protoRowType != null) {
             return protoRowType.apply(typeFactory);
         }
-        return this.converter.getRowType((JavaTypeFactory) typeFactory);
+        final JavaTypeFactory javaTypeFactory = (JavaTypeFactory) typeFactory;
+        final RelDataType rowType = this.converter.getRowType(javaTypeFactory);
+        if (!this.seeded && !this.converter.isDeclaredOnly()) {
+            // the page was read to infer the row type
+            try {
+                checkPage();
+            } catch (WebReaderException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        if (this.partitions == null) {
+            return rowType;
+        }
+        final List<String> names = new ArrayList<String>();
+        final List<RelDataType> types = new ArrayList<RelDataType>();
+        for (RelDataTypeField field : rowType.getFieldList()) {
+            names.add(field.getName());
+            types.add(field.getType());
+        }
+        names.add(this.partitions.getColumn());
+        types.add(javaTypeFactory.createJavaType(String.class));
+        return typeFactory.createStructType(Pair.zip(names, types));
+    }
+
+    /** Fetches the table's pages again and rebuilds what was derived from
+     * them; scans carry on with the old snapshot meanwhile. Called by
+     * {@link WebRefresher}. */
+    void refresh() throws WebReaderException {
+        if (this.partitions != null) {
+            this.partitions.reload();
+            return;
+        }
+        this.reader.reload();
+        if (this.materialize) {
+            rebuildStore();
+        }
+    }
+
+    // columns saved by an earlier run serve until the page has been fetched
+    private void restore() {
+        WebSnapshot saved =
+            WebSnapshot.read(this.snapshotFile, this.reader.getUrl());
+        if (saved == null) {
+            return;
+        }
+        try {
+            this.converter.initialize(saved.getHeadings());
+            this.seeded = true;
+            if (!saved.matches(this.converter)) {
+                // the field definitions have changed since
+                return;
+            }
+        } catch (RuntimeException e) {
+            return;
+        }
+        this.store = saved.getStore();
+        restoreInBackground();
+    }
+
+    // fetch the page off the query path, one fetch at a time; until one
+    // succeeds, scans read the restored columns
+    private void restoreInBackground() {
+        if (!this.restoring.compareAndSet(false, true)) {
+            return;
+        }
+        WebRefresher.execute(new Runnable() {
+            public void run() {
+                try {
+                    refresh();
+                } catch (Exception e) {
+                    // the next scan tries again
+                } finally {
+                    restoring.set(false);
+                }
+            }
+        });
+    }
+
+    // converted columns, rebuilt whenever the page cache has a newer page (for a
+    // refreshed table, by the refresher)
+    private WebColumnStore store() throws WebReaderException {
+        WebColumnStore store = this.store;
+        if (store != null && store.isRestored()) {
+            restoreInBackground();
+            return store;
+        }
+        if (store != null
+            && (this.refreshed || store.isCurrent(this.reader.currentPage()))) {
+            // a refreshed table swaps in new columns off the query path
+            return store;
+        }
+        return rebuildStore();
+    }
+
+    private synchronized WebColumnStore rebuildStore() throws WebReaderException {
+        WebPage page = this.reader.currentPage();
+        if (this.store == null || !this.store.isCurrent(page)) {
+            checkPage();
+            this.store = WebColumnStore.build(page, this.reader, this.converter);
+            if (this.snapshotFile != null) {
+                save(this.store);
+            }
+        }
+        return this.store;
+    }
+
+    // when the page is first read: check any saved headings against it, and
+    // remember its headings and row count for the next run
+    private void checkPage() throws WebReaderException {
+        if (!this.scanned) {
+            checkPageOnce();
+        }
+    }
+
+    private synchronized void checkPageOnce() throws WebReaderException {
+        if (this.scanned) {
+            return;
+        }
+        if (this.seeded) {
+            List<String> headings =
+                WebRowConverter.texts(this.reader.getHeadings());
+            this.seeded = false;
+            if (!headings.equals(this.converter.getHeadings())) {
+                // the fields were defined against the saved headings: define
+                // them again against the page, for queries planned from now
+                // on, and fail this one, whose row type is out of date
+                if (this.snapshotFile != null) {
+                    this.snapshotFile.delete();
+                }
+                this.store = null;
+                this.converter = this.converter.copy();
+                this.scanned = true;
+                saveMetadata();
+                throw new WebReaderException("bad saved headings: headings of '"
+                    + this.reader.getUrl() + "' have changed");
+            }
+        }
+        saveMetadata();
+        this.scanned = true;
+    }
+
+    private void saveMetadata() throws WebReaderException {
+        if (this.metadata == null) {
+            return;
+        }
+        // a partitioned table is not counted; that means every page
+        int rowCount = (this.partitions == null) ? this.reader.getRowCount() : -1;
+        this.metadata.store(this.reader.tableKey(),
+            this.converter.getHeadings(), rowCount);
+    }
+
+    // write the snapshot off the query path
+    private void save(final WebColumnStore store) {
+        final List<String> headings = this.converter.getHeadings();
+        WebRefresher.execute(new Runnable() {
+            public void run() {
+                try {
+                    WebSnapshot.write(snapshotFile, store, headings);
+                } catch (IOException e) {
+                    // the snapshot only saves a fetch after a restart
+                }
+            }
+        });
+    }
+
+    private Enumerator<Object> enumerator(int[] fields) throws WebReaderException {
+        return enumerator("EnumerableTableAccessRel", fields, new WebFilter[0]);
+    }
+
+    // rel names the plan node that reads the rows, for profiles
+    private Enumerator<Object> enumerator(String rel, int[] fields,
+        WebFilter[] filters) throws WebReaderException {
+        WebProfile profile = !this.profiling ? null
+            : new WebProfile(this.stats,
+                WebProfile.node(rel, this.stats, fields, filters));
+        Enumerator<Object> rows;
+        if (this.partitions != null) {
+            checkPage();
+            rows = this.partitions.enumerator(this.converter, fields, filters);
+        } else if (this.materialize) {
+            rows = store().enumerator(fields, filters);
+        } else {
+            checkPage();
+            rows = new WebEnumerator(reader, converter, fields, filters);
+        }
+        return new CountingEnumerator(rows, this.stats, profile);
     }
 
     public <T> Queryable<T> asQueryable(QueryProvider queryProvider, SchemaPlus schema, String tableName) {
@@ -87,8 +476,8 @@ public class WebTable extends AbstractQueryableTable
                 public Enumerator<T> enumerator() {
                     //noinspection unchecked
                     try {
-                        WebEnumerator enumerator = new WebEnumerator(reader.iterator(), converter);
-                        return (Enumerator<T>) enumerator;
+                        int[] fields = WebEnumerator.identityList(width());
+                        return (Enumerator<T>) WebTable.this.enumerator(fields);
                     } catch (Exception e) {
                         throw new RuntimeException(e);
                     }
@@ -96,13 +485,56 @@ public class WebTable extends AbstractQueryableTable
         };
     }
 
-    /** Returns an enumerable over a given projection of the fields. */
+    /**
+     * Returns batches of a projection of the rows that pass some filters
+     * (encoded as by {@link WebFilter#encode}), for callers that can work a
+     * column at a time.
+     */
+    public Enumerator<WebBatch> batches(int[] fields, String[] filters)
+        throws WebReaderException {
+        return batches(fields, WebFilter.decode(filters), WebBatch.DEFAULT_SIZE);
+    }
+
+    Enumerator<WebBatch> batches(int[] fields, WebFilter[] filters, int size)
+        throws WebReaderException {
+        if (this.partitions != null) {
+            checkPage();
+            WebFieldType[] types = new WebFieldType[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                // the partition column is a string, like untyped fields
+                types[i] = (fields[i] == this.converter.width())
+                    ? null : this.converter.getFieldType(fields[i]);
+            }
+            return WebBatch.fromRows(
+                this.partitions.enumerator(this.converter, fields, filters),
+                types, size);
+        }
+        if (this.materialize) {
+            return store().batches(fields, filters, size);
+        }
+        checkPage();
+        return new WebBatchReader(this.reader, this.converter, fields, filters, size);
+    }
+
+    /** Returns an enumerable over a given projection of the fields.
+     * Called from code generated by {@link WebTableScan}; a projection of a
+     * single field yields scalars rather than one-element arrays. */
     public Enumerable<Object> project(final int[] fields) {
+        return project(fields, new String[0]);
+    }
+
+    /** Returns an enumerable over a given projection of the rows that pass
+     * some filters, as encoded by {@link WebFilter#encode}. */
+    public Enumerable<Object> project(final int[] fields, String[] filters) {
+        final WebFilter[] webFilters = WebFilter.decode(filters);
         return new AbstractEnumerable<Object>() {
                 public Enumerator<Object> enumerator() {
                     try {
-                        WebEnumerator enumerator = new WebEnumerator(reader.iterator(), converter, fields);
-                        return enumerator;
+                        Enumerator<Object> enumerator =
+                            WebTable.this.enumerator("WebTableScan", fields,
+                                webFilters);
+                        return (fields.length == 1)
+                            ? new ScalarEnumerator(enumerator) : enumerator;
                     } catch (Exception e) {
                         throw new RuntimeException(e);
                     }
@@ -110,6 +542,87 @@ public class WebTable extends AbstractQueryableTable
             };
     }
 
+    // counts the rows a scan returns, adding them to the statistics at the
+    // end of the scan rather than row by row; ends the scan's profile, if any
+    private static class CountingEnumerator implements Enumerator<Object> {
+        private final Enumerator<Object> rows;
+        private final WebStats stats;
+        private final WebProfile profile;
+        private long count = 0;
+
+        CountingEnumerator(Enumerator<Object> rows, WebStats stats,
+            WebProfile profile) {
+            this.rows = rows;
+            this.stats = stats;
+            this.profile = profile;
+        }
+
+        public Object current() {
+            return this.rows.current();
+        }
+
+        public boolean moveNext() {
+            if (this.rows.moveNext()) {
+                if (this.count++ == 0 && this.profile != null) {
+                    this.profile.firstRow();
+                }
+                return true;
+            }
+            flush();
+            if (this.profile != null) {
+                this.profile.finish();
+            }
+            return false;
+        }
+
+        public void reset() {
+            flush();
+            this.rows.reset();
+        }
+
+        public void close() {
+            flush();
+            this.rows.close();
+            if (this.profile != null) {
+                this.profile.finish();
+            }
+        }
+
+        private void flush() {
+            this.stats.returned(this.count);
+            if (this.profile != null) {
+                this.profile.returned(this.count);
+            }
+            this.count = 0;
+        }
+    }
+
+    // unwraps single-element rows
+    private static class ScalarEnumerator implements Enumerator<Object> {
+        private final Enumerator<Object> rows;
+
+        ScalarEnumerator(Enumerator<Object> rows) {
+            this.rows = rows;
+        }
+
+        public Object current() {
+            Object row = this.rows.current();
+            return (row == null) ? null : ((Object[]) row)[0];
+        }
+
+        public boolean moveNext() {
+            return this.rows.moveNext();
+        }
+
+        public void reset() {
+            this.rows.reset();
+        }
+
+        public void close() {
+            this.rows.close();
+        }
+    }
+
     public RelNode toRel(RelOptTable.ToRelContext context, RelOptTable relOptTable) {
         return new JavaRules.EnumerableTableAccessRel(context.getCluster(),
             context.getCluster().traitSetOf(EnumerableConvention.INSTANCE),
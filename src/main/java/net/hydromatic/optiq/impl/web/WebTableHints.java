@@ -0,0 +1,80 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import java.util.Map;
+
+/**
+ * Hints that narrow down which table of a page is chosen when a table
+ * definition has no selector.
+ *
+ * <p>Of the tables that pass the hints, the one with the most rows &times;
+ * columns (of its first row) is chosen. <code>minRows</code> rules out
+ * tables with fewer rows (navigation boxes, legends);
+ * <code>requiredHeader</code> rules out tables whose first row does not
+ * contain the given text.</p>
+ */
+class WebTableHints {
+    /** Hints that accept every table. */
+    static final WebTableHints NONE = new WebTableHints(0, null);
+
+    private final int minRows;
+    private final String requiredHeader;
+
+    WebTableHints(int minRows, String requiredHeader) {
+        this.minRows = minRows;
+        this.requiredHeader = requiredHeader;
+    }
+
+    /** Reads the hints of a table definition. */
+    static WebTableHints of(Map<String, Object> tableDef) {
+        Number minRows = (Number) tableDef.get("minRows");
+        String requiredHeader = (String) tableDef.get("requiredHeader");
+        if (minRows == null && requiredHeader == null) {
+            return NONE;
+        }
+        return new WebTableHints((minRows == null) ? 0 : minRows.intValue(),
+            requiredHeader);
+    }
+
+    /** Whether {@link #accepts} needs the text of a table's first row. */
+    boolean needsHeader() {
+        return this.requiredHeader != null;
+    }
+
+    /** Whether a table with the given number of rows and first-row text
+     * (which may be null if not {@link #needsHeader needed}) is a candidate. */
+    boolean accepts(int rows, String header) {
+        if (rows < this.minRows) {
+            return false;
+        }
+        return this.requiredHeader == null
+            || (header != null && header.contains(this.requiredHeader));
+    }
+
+    public String toString() {
+        if (this == NONE) {
+            return "";
+        }
+        return "{minRows: " + this.minRows + ", requiredHeader: "
+            + ((this.requiredHeader == null) ? "null"
+                : "'" + this.requiredHeader + "'") + "}";
+    }
+}
+
+// End WebTableHints.java
@@ -37,11 +37,19 @@ public class WebTableScan extends TableAccessRelBase implements EnumerableRel {
 
   final WebTable webTable;
   final int[] fields;
+  // predicates on table fields (not on the projected fields)
+  final List<WebFilter> filters;
 
   protected WebTableScan(RelOptCluster cluster, RelOptTable table, WebTable webTable, int[] fields) {
+    this(cluster, table, webTable, fields, Collections.<WebFilter>emptyList());
+  }
+
+  protected WebTableScan(RelOptCluster cluster, RelOptTable table, WebTable webTable, int[] fields,
+      List<WebFilter> filters) {
     super(cluster, cluster.traitSetOf(EnumerableConvention.INSTANCE), table);
     this.webTable = webTable;
     this.fields = fields;
+    this.filters = filters;
 
     assert webTable != null;
   }
@@ -49,13 +57,23 @@ public class WebTableScan extends TableAccessRelBase implements EnumerableRel {
   @Override
   public RelNode copy(RelTraitSet traitSet, List<RelNode> inputs) {
     assert inputs.isEmpty();
-    return new WebTableScan(getCluster(), table, webTable, fields);
+    return new WebTableScan(getCluster(), table, webTable, fields, filters);
+  }
+
+  @Override
+  public void register(RelOptPlanner planner) {
+    planner.addRule(WebPushProjectOntoTableRule.INSTANCE);
+    planner.addRule(WebPushFilterOntoTableRule.INSTANCE);
   }
 
   @Override
   public RelWriter explainTerms(RelWriter pw) {
-    return super.explainTerms(pw)
+    pw = super.explainTerms(pw)
         .item("fields", Primitive.asList(fields));
+    if (!filters.isEmpty()) {
+      pw = pw.item("filters", filters);
+    }
+    return pw;
   }
 
   @Override
@@ -76,11 +94,19 @@ public class WebTableScan extends TableAccessRelBase implements EnumerableRel {
             getRowType(),
             pref.preferArray());
 
+    if (filters.isEmpty()) {
+      return implementor.result(
+          physType,
+          Blocks.toBlock(
+              Expressions.call(table.getExpression(WebTable.class), "project",
+                  Expressions.constant(fields))));
+    }
     return implementor.result(
         physType,
         Blocks.toBlock(
             Expressions.call(table.getExpression(WebTable.class), "project",
-                Expressions.constant(fields))));
+                Expressions.constant(fields),
+                Expressions.constant(WebFilter.encode(filters)))));
   }
 }
 
@@ -0,0 +1,623 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import org.jsoup.Jsoup;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Extracts the rows of one HTML table from a character stream without
+ * building a DOM for the whole page.
+ *
+ * <p>The page is tokenized incrementally; only the markup of the row
+ * currently being read is buffered, and each completed row is parsed by
+ * Jsoup as a small fragment, so callers see the same {@link Element}s a full
+ * parse would give them. Rows of nested tables stay inside the cell that
+ * contains them.</p>
+ *
+ * <p>The target table is identified either by a simple selector
+ * (<code>tag</code>, <code>#id</code>, <code>.class</code>, or a compound
+ * of those) plus an optional index, or by its ordinal among all tables in the
+ * page, as found by {@link #bestTable(Reader, WebTableHints)}. As when the
+ * whole page is parsed, a selector without an index must match exactly one
+ * element; the rest of the page is read to make sure.</p>
+ */
+class WebTableStream implements Iterator<Element> {
+
+    private static final int EOF = -1;
+
+    // token types
+    private static final int END_OF_INPUT = 0;
+    private static final int TEXT = 1;
+    private static final int START = 2;
+    private static final int END = 3;
+    private static final int OTHER = 4;
+
+    private final PushbackReader in;
+    private final SimpleSelector selector;
+    private final String selectorText;
+    private final int wanted;
+    // whether the selector must match a single element
+    private final boolean unique;
+    private final int targetOrdinal;
+
+    // current token
+    private final StringBuilder raw = new StringBuilder();
+    private String tagName;
+    private String tagId;
+    private String tagClass;
+
+    // open tables, innermost last
+    private final ArrayList<TableState> open = new ArrayList<TableState>();
+    private int tableCount = 0;
+    private int matchCount = 0;
+    private boolean found = false;
+    private boolean done = false;
+
+    // markup of the target table row being read, if any
+    private StringBuilder row;
+
+    // best table seen so far (scoring mode)
+    private WebTableHints hints = WebTableHints.NONE;
+    private int bestOrdinal = -1;
+    private int bestScore = -1;
+
+    // one row of look-ahead for the iterator
+    private Element next;
+
+    private WebTableStream(Reader reader, SimpleSelector selector,
+        String selectorText, Integer index, int targetOrdinal) {
+        this.in = new PushbackReader(new BufferedReader(reader), 16);
+        this.selector = selector;
+        this.selectorText = selectorText;
+        this.wanted = (index == null) ? 0 : index.intValue();
+        this.unique = (selector != null) && (index == null);
+        this.targetOrdinal = targetOrdinal;
+    }
+
+    /** Creates a stream over the rows of the table matched by a simple
+     * selector; if index is null, the selector must match just one element,
+     * or reading fails at the end of the page. */
+    static WebTableStream select(Reader reader, String selector, Integer index) {
+        return new WebTableStream(reader, SimpleSelector.parse(selector),
+            selector, index, -1);
+    }
+
+    /** Creates a stream over the rows of the n-th table (in document order). */
+    static WebTableStream ordinal(Reader reader, int ordinal) {
+        return new WebTableStream(reader, null, null, null, ordinal);
+    }
+
+    /** Whether a selector is simple enough to be evaluated while streaming. */
+    static boolean canStream(String selector) {
+        return (selector == null) || (selector.length() == 0)
+            || (SimpleSelector.parse(selector) != null);
+    }
+
+    /**
+     * Scans a whole page and returns the ordinal of the table with the highest
+     * score (rows &times; columns of its first row) among those that pass the
+     * hints, or -1 if there is none. Rows and cells of nested tables count towards the nested table
+     * only.
+     */
+    static int bestTable(Reader reader, WebTableHints hints) throws IOException {
+        WebTableStream scan = new WebTableStream(reader, null, null, null, -1);
+        try {
+            scan.found = true;
+            scan.hints = hints;
+            int token;
+            while ((token = scan.nextToken()) != END_OF_INPUT) {
+                scan.handle(token);
+            }
+            while (!scan.open.isEmpty()) {
+                scan.score(scan.open.remove(scan.open.size() - 1));
+            }
+            return scan.bestOrdinal;
+        } catch (WebReaderException e) {
+            // cannot happen without a selector
+            throw new RuntimeException(e);
+        } finally {
+            scan.close();
+        }
+    }
+
+    public boolean hasNext() {
+        if (this.next == null && !this.done) {
+            try {
+                this.next = readRow();
+            } catch (Exception e) {
+                close();
+                throw new RuntimeException(e);
+            }
+            if (this.next == null) {
+                close();
+            }
+        }
+        return this.next != null;
+    }
+
+    public Element next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Element row = this.next;
+        this.next = null;
+        return row;
+    }
+
+    /** Returns the next row without consuming it, or null at the end. */
+    public Element peek() {
+        return hasNext() ? this.next : null;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException("NFW - can't remove!");
+    }
+
+    public void close() {
+        this.done = true;
+        try {
+            this.in.close();
+        } catch (IOException e) {
+            // nothing useful to do
+        }
+    }
+
+    // reads tokens until a row of the target table is complete
+    private Element readRow() throws IOException, WebReaderException {
+        while (!this.done) {
+            int token = nextToken();
+            if (token == END_OF_INPUT) {
+                this.done = true;
+                if (this.row != null) {
+                    return toRow(closeRow());
+                }
+                if (!this.found || (this.unique && this.matchCount > 1)) {
+                    throw new WebReaderException((this.selector == null)
+                        ? "no tables found"
+                        : "" + this.matchCount + " HTML element(s) selected");
+                }
+                return null;
+            }
+            String html = handle(token);
+            if (html != null) {
+                Element element = toRow(html);
+                if (element != null) {
+                    return element;
+                }
+            }
+        }
+        return null;
+    }
+
+    // track table structure; returns the markup of a completed target row
+    private String handle(int token) throws WebReaderException {
+        TableState top = this.open.isEmpty()
+            ? null : this.open.get(this.open.size() - 1);
+        String completed = null;
+
+        if (token == START) {
+            boolean target = !this.found && isTarget();
+            if (this.found && !target && this.unique
+                && this.selector.matches(this.tagName, this.tagId, this.tagClass)) {
+                // counted, so that a second match fails
+                this.matchCount++;
+            }
+            if (this.tagName.equals("table")) {
+                TableState table = new TableState(this.tableCount++, target);
+                if (this.hints.needsHeader()) {
+                    table.header = new StringBuilder();
+                }
+                this.open.add(table);
+            } else if (this.tagName.equals("tr")) {
+                if (top != null) {
+                    if (top.target && this.row != null) {
+                        completed = closeRow();
+                    }
+                    top.rows++;
+                    if (top.target) {
+                        this.row = new StringBuilder();
+                    }
+                }
+            } else if (this.tagName.equals("th") || this.tagName.equals("td")) {
+                if (top != null && top.rows == 1) {
+                    top.firstRowCells++;
+                }
+            }
+        } else if (token == TEXT && top != null && top.rows == 1
+            && top.header != null) {
+            top.header.append(this.raw);
+        } else if (token == END && top != null) {
+            if (this.tagName.equals("tr") && top.target && this.row != null) {
+                this.row.append(this.raw);
+                return closeRow();
+            }
+            if (this.tagName.equals("table") || this.tagName.equals("tbody")
+                || this.tagName.equals("thead") || this.tagName.equals("tfoot")) {
+                if (top.target && this.row != null) {
+                    completed = closeRow();
+                }
+            }
+            if (this.tagName.equals("table")) {
+                this.open.remove(this.open.size() - 1);
+                score(top);
+                if (top.target && !this.unique) {
+                    this.done = true;
+                }
+            }
+        }
+
+        if (this.row != null) {
+            this.row.append(this.raw);
+        }
+        return completed;
+    }
+
+    // is the current start tag the one we are looking for?
+    private boolean isTarget() throws WebReaderException {
+        boolean isTable = this.tagName.equals("table");
+        if (this.selector == null) {
+            if (isTable && this.tableCount == this.targetOrdinal) {
+                this.found = true;
+            }
+            return this.found;
+        }
+        if (!this.selector.matches(this.tagName, this.tagId, this.tagClass)) {
+            return false;
+        }
+        if (this.matchCount++ != this.wanted) {
+            return false;
+        }
+        if (!isTable) {
+            throw new WebReaderException("selected (" + this.selectorText
+                + ") element is a " + this.tagName + ", not a table");
+        }
+        this.found = true;
+        return true;
+    }
+
+    private void score(TableState table) {
+        String header = (table.header == null) ? null
+            : Jsoup.parseBodyFragment(table.header.toString()).text();
+        if (!this.hints.accepts(table.rows, header)) {
+            return;
+        }
+        int score = table.rows * table.firstRowCells;
+        if (score > this.bestScore) {
+            this.bestScore = score;
+            this.bestOrdinal = table.ordinal;
+        }
+    }
+
+    private String closeRow() {
+        String html = this.row.toString();
+        this.row = null;
+        return html;
+    }
+
+    // parse the markup of one row into a tr element
+    private static Element toRow(String html) {
+        Document doc = Jsoup.parseBodyFragment("<table>" + html + "</table>");
+        return doc.select("tr").first();
+    }
+
+    // tokenizer
+
+    private int nextToken() throws IOException {
+        this.raw.setLength(0);
+        this.tagName = null;
+        this.tagId = null;
+        this.tagClass = null;
+
+        int c = this.in.read();
+        if (c == EOF) {
+            return END_OF_INPUT;
+        }
+        this.raw.append((char) c);
+        if (c != '<') {
+            readText();
+            return TEXT;
+        }
+
+        int c2 = this.in.read();
+        if (c2 == EOF) {
+            return TEXT;
+        }
+        if (c2 == '!' || c2 == '?') {
+            this.raw.append((char) c2);
+            if (c2 == '!' && lookingAt("--")) {
+                readUntil("-->");
+            } else {
+                readUntil(">");
+            }
+            return OTHER;
+        }
+        if (c2 == '/') {
+            this.raw.append('/');
+            readUntil(">");
+            this.tagName = parseName(2);
+            return END;
+        }
+        if (Character.isLetter((char) c2)) {
+            this.raw.append((char) c2);
+            readTag();
+            this.tagName = parseName(1);
+            if (this.selector != null && this.selector.needsAttributes()) {
+                parseAttributes();
+            }
+            if ((this.tagName.equals("script") || this.tagName.equals("style"))
+                && !endsWith("/>")) {
+                // raw text; swallow everything up to the end tag
+                readUntil("</" + this.tagName);
+                readUntil(">");
+            }
+            return START;
+        }
+        this.in.unread(c2);
+        readText();
+        return TEXT;
+    }
+
+    private void readText() throws IOException {
+        int c;
+        while ((c = this.in.read()) != EOF) {
+            if (c == '<') {
+                this.in.unread(c);
+                return;
+            }
+            this.raw.append((char) c);
+        }
+    }
+
+    // read a start tag up to its closing '>', respecting quoted values
+    private void readTag() throws IOException {
+        int quote = 0;
+        int c;
+        while ((c = this.in.read()) != EOF) {
+            this.raw.append((char) c);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return;
+            }
+        }
+    }
+
+    private void readUntil(String terminator) throws IOException {
+        int c;
+        while (!endsWith(terminator) && (c = this.in.read()) != EOF) {
+            this.raw.append((char) c);
+        }
+    }
+
+    private boolean lookingAt(String s) throws IOException {
+        char[] buf = new char[s.length()];
+        int n = this.in.read(buf);
+        if (n > 0 && new String(buf, 0, n).equals(s)) {
+            this.raw.append(buf, 0, n);
+            return true;
+        }
+        if (n > 0) {
+            this.in.unread(buf, 0, n);
+        }
+        return false;
+    }
+
+    private boolean endsWith(String s) {
+        int offset = this.raw.length() - s.length();
+        if (offset < 0) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.toLowerCase(this.raw.charAt(offset + i))
+                != Character.toLowerCase(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String parseName(int start) {
+        int i = start;
+        int n = this.raw.length();
+        while (i < n) {
+            char c = this.raw.charAt(i);
+            if (Character.isWhitespace(c) || c == '/' || c == '>') {
+                break;
+            }
+            i++;
+        }
+        return this.raw.substring(start, i).toLowerCase();
+    }
+
+    // pick the id and class attributes out of the current start tag
+    private void parseAttributes() {
+        int i = 1 + this.tagName.length();
+        int n = this.raw.length();
+        while (i < n) {
+            char c = this.raw.charAt(i);
+            if (c == '>') {
+                break;
+            }
+            if (Character.isWhitespace(c) || c == '/' || c == '=') {
+                i++;
+                continue;
+            }
+            int nameStart = i;
+            while (i < n && !isAttributeNameEnd(this.raw.charAt(i))) {
+                i++;
+            }
+            String name = this.raw.substring(nameStart, i).toLowerCase();
+            while (i < n && Character.isWhitespace(this.raw.charAt(i))) {
+                i++;
+            }
+            String value = "";
+            if (i < n && this.raw.charAt(i) == '=') {
+                i++;
+                while (i < n && Character.isWhitespace(this.raw.charAt(i))) {
+                    i++;
+                }
+                if (i < n && (this.raw.charAt(i) == '"' || this.raw.charAt(i) == '\'')) {
+                    char quote = this.raw.charAt(i++);
+                    int valueStart = i;
+                    while (i < n && this.raw.charAt(i) != quote) {
+                        i++;
+                    }
+                    value = this.raw.substring(valueStart, Math.min(i, n));
+                    i++;
+                } else {
+                    int valueStart = i;
+                    while (i < n && this.raw.charAt(i) != '>'
+                        && !Character.isWhitespace(this.raw.charAt(i))) {
+                        i++;
+                    }
+                    value = this.raw.substring(valueStart, i);
+                }
+            }
+            if (name.equals("id")) {
+                this.tagId = value;
+            } else if (name.equals("class")) {
+                this.tagClass = value;
+            }
+        }
+    }
+
+    private static boolean isAttributeNameEnd(char c) {
+        return Character.isWhitespace(c) || c == '=' || c == '>' || c == '/';
+    }
+
+    // per-table bookkeeping
+    private static class TableState {
+        final int ordinal;
+        final boolean target;
+        int rows = 0;
+        int firstRowCells = 0;
+        // text of the first row, if the hints need it
+        StringBuilder header;
+
+        TableState(int ordinal, boolean target) {
+            this.ordinal = ordinal;
+            this.target = target;
+        }
+    }
+
+    /** Selector of the form <code>tag#id.class1.class2</code>, any part
+     * optional; anything more elaborate is not supported while streaming. */
+    static class SimpleSelector {
+        private final String tag;
+        private final String id;
+        private final String[] classes;
+
+        private SimpleSelector(String tag, String id, String[] classes) {
+            this.tag = tag;
+            this.id = id;
+            this.classes = classes;
+        }
+
+        /** Returns null if the selector is not simple. */
+        static SimpleSelector parse(String selector) {
+            if (selector == null) {
+                return null;
+            }
+            String s = selector.trim();
+            if (s.length() == 0) {
+                return null;
+            }
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (!Character.isLetterOrDigit(c) && c != '-' && c != '_'
+                    && c != '#' && c != '.') {
+                    return null;
+                }
+            }
+
+            String tag = null;
+            String id = null;
+            ArrayList<String> classes = new ArrayList<String>();
+            int i = 0;
+            while (i < s.length()) {
+                char kind = s.charAt(i);
+                int start = (kind == '#' || kind == '.') ? i + 1 : i;
+                int end = start;
+                while (end < s.length() && s.charAt(end) != '#'
+                    && s.charAt(end) != '.') {
+                    end++;
+                }
+                String part = s.substring(start, end);
+                if (part.length() == 0) {
+                    return null;
+                }
+                if (kind == '#') {
+                    if (id != null) {
+                        return null;
+                    }
+                    id = part;
+                } else if (kind == '.') {
+                    classes.add(part);
+                } else {
+                    tag = part.toLowerCase();
+                }
+                i = end;
+            }
+            return new SimpleSelector(tag, id,
+                classes.toArray(new String[classes.size()]));
+        }
+
+        boolean needsAttributes() {
+            return this.id != null || this.classes.length > 0;
+        }
+
+        boolean matches(String tagName, String tagId, String tagClass) {
+            if (this.tag != null && !this.tag.equals(tagName)) {
+                return false;
+            }
+            if (this.id != null && !this.id.equals(tagId)) {
+                return false;
+            }
+            if (this.classes.length > 0) {
+                if (tagClass == null) {
+                    return false;
+                }
+                String padded = " " + tagClass.trim().replaceAll("\\s+", " ") + " ";
+                for (String c : this.classes) {
+                    if (padded.indexOf(" " + c + " ") < 0) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+}
+
+// End WebTableStream.java
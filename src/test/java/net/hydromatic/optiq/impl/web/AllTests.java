@@ -28,7 +28,10 @@ import java.net.Socket;
  * Unit test suite for optiq-web.
  */
 @RunWith(Suite.class)
-@Suite.SuiteClasses({ WebReaderTest.class, SQLTest.class })
+@Suite.SuiteClasses({ WebReaderTest.class, SQLTest.class, WebDiskCacheTest.class,
+    WebNumberParserTest.class, WebDateParserTest.class, WebFetcherTest.class,
+    WebPrefetcherTest.class, WebRefresherTest.class, WebSnapshotTest.class,
+    WebMetadataCacheTest.class })
 public class AllTests {
 
     private static final String TEST_HOST = "en.wikipedia.org";
@@ -0,0 +1,159 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import net.hydromatic.linq4j.Enumerator;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An HTTP server on a free local port, for tests that fetch over the
+ * network.
+ *
+ * <p>Pages added with {@link #page} are served as UTF-8, and their responses
+ * counted; other paths can have handlers of their own. The server also owns a
+ * temporary directory, for caches and snapshots, which {@link #close()}
+ * deletes.</p>
+ */
+public class LocalWebServer {
+    /** A page holding one table, with headings H0 and H1 and one row. */
+    public static final String PAGE = "<html><body><table>"
+        + "<tr><th>H0</th><th>H1</th></tr>"
+        + "<tr><td>R0C0</td><td>R0C1</td></tr>"
+        + "</table></body></html>";
+
+    private final HttpServer server;
+    private final Map<String, String> pages =
+        new ConcurrentHashMap<String, String>();
+    private final AtomicInteger responses = new AtomicInteger();
+    private File directory;
+
+    /** Creates and starts a server. */
+    public LocalWebServer() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.start();
+    }
+
+    /** Serves a page at a path, or replaces the page served there. */
+    public LocalWebServer page(final String path, String body) {
+        if (this.pages.put(path, body) == null) {
+            this.server.createContext(path, new HttpHandler() {
+                public void handle(HttpExchange exchange) throws IOException {
+                    responses.incrementAndGet();
+                    send(exchange, 200, pages.get(path).getBytes("UTF-8"));
+                }
+            });
+        }
+        return this;
+    }
+
+    /** Handles requests for a path. */
+    public LocalWebServer handle(String path, HttpHandler handler) {
+        this.server.createContext(path, handler);
+        return this;
+    }
+
+    /** Returns how many responses pages added with {@link #page} have
+     * sent. */
+    public int responses() {
+        return this.responses.get();
+    }
+
+    /** Returns the URL of a path, which may have a query, on this server. */
+    public String spec(String path) {
+        return "http://localhost:" + this.server.getAddress().getPort() + path;
+    }
+
+    /** Same as {@link #spec(String)}, as a URL. */
+    public URL url(String path) throws MalformedURLException {
+        return new URL(spec(path));
+    }
+
+    /** Returns a temporary directory, which does not exist until something
+     * creates it. */
+    public File directory() throws IOException {
+        if (this.directory == null) {
+            this.directory = File.createTempFile("optiq-web", "test");
+            this.directory.delete();
+        }
+        return this.directory;
+    }
+
+    /** Stops serving, as if the server had gone down; the directory stays. */
+    public void stop() {
+        this.server.stop(0);
+    }
+
+    /** Stops serving, and deletes the directory and its files. */
+    public void close() {
+        stop();
+        if (this.directory != null) {
+            File[] files = this.directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            this.directory.delete();
+        }
+    }
+
+    /** Sends a response with a body, for handlers. */
+    public static void send(HttpExchange exchange, int status, byte[] body)
+        throws IOException {
+        if (body.length == 0) {
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    /** Scans fields of a table in batches, and returns the first batch. */
+    public static WebBatch firstBatch(WebTable table, int... fields)
+        throws WebReaderException {
+        Enumerator<WebBatch> batches = table.batches(fields, new String[0]);
+        try {
+            assertTrue(batches.moveNext());
+            return batches.current();
+        } finally {
+            batches.close();
+        }
+    }
+}
+
+// End LocalWebServer.java
@@ -25,6 +25,7 @@ import org.junit.Test;
 import static org.junit.Assert.*;
 
 import java.io.PrintStream;
+import java.net.URL;
 import java.sql.*;
 import java.util.Properties;
 
@@ -82,8 +83,94 @@ public class SQLTest {
         "TotalProfits=492.1; BadAssets=0.0\n");
   }
 
+  /**
+   * Reads from a table materialized into columns
+   */
+  @Test
+  public void testMaterialized() throws SQLException {
+    checkSql("testModel", "select H1 from T1_MAT where H0 = 'R1C0'", "H1=R1C1\n");
+    checkSql("testModel", "select count(*) as C from T1_MAT", "C=3\n");
+  }
+
+  /**
+   * Smart tables scan only the projected columns
+   */
+  @Test
+  public void testSmartProject() throws SQLException {
+    checkSql("smartModel", "select H2 from T1", "H2=R0C2\nH2=R1C2\nH2=R2C2\n");
+    checkSql("smartModel", "select H1, H0 from T1_MAT where H0 = 'R2C0'",
+        "H1=R2C1; H0=R2C0\n");
+    checkPlan("smartModel", "select H2 from T1", "fields=[[2]]");
+  }
+
+  /**
+   * Smart tables test pushed-down filters in the scan
+   */
+  @Test
+  public void testSmartFilter() throws SQLException {
+    checkSql("smartModel", "select H1 from T1 where H0 = 'R1C0'", "H1=R1C1\n");
+    checkSql("smartModel", "select H0 from T1 where H2 like '%2C2'", "H0=R2C0\n");
+    checkSql("smartModel", "select H0 from T1_MAT where H1 in ('R0C1', 'R2C1')",
+        "H0=R0C0\nH0=R2C0\n");
+    checkPlan("smartModel", "select H1 from T1 where H0 = 'R1C0'",
+        "filters=[[$0 = 'R1C0']]");
+  }
+
+  /**
+   * Partitioned tables read every page, and prune pages on the partition column
+   */
+  @Test
+  public void testPartitions() throws SQLException {
+    checkSql("smartModel", "select count(*) as C from PAGES", "C=6\n");
+    checkSql("smartModel", "select H0 from PAGES where PAGE = '3'",
+        "H0=P3R0C0\nH0=P3R1C0\n");
+    checkPlan("smartModel", "select H0 from PAGES where PAGE = '3'",
+        "filters=[[$2 = '3']]");
+  }
+
+  /**
+   * WEB_STATS counts the pages, bytes, rows and cells of a scan run before it
+   */
+  @Test
+  public void testStats() throws Exception {
+    // the page is fetched by this test, whatever other tests have cached
+    WebPageCache.instance().invalidate(
+        new URL("file:target/test-classes/tableOK.html"));
+    String scan = "select H1 from T1 where H0 = 'R1C0'";
+    checkSqlAfter("testModel", scan, "select URL, FETCHES, FETCH_BYTES,"
+            + " ROWS_RETURNED, CONVERSIONS, CONVERSION_FAILURES from WEB_STATS"
+            + " where TABLE_NAME = 'T1' and COLUMN_NAME is null",
+        "URL=file:target/test-classes/tableOK.html; FETCHES=1; FETCH_BYTES=287;"
+            + " ROWS_RETURNED=3; CONVERSIONS=9; CONVERSION_FAILURES=0\n");
+    // cells are timed only in a profiled schema
+    checkSqlAfter("testModel", scan, "select COLUMN_NAME, CONVERSIONS,"
+            + " CONVERSION_MILLIS from WEB_STATS"
+            + " where TABLE_NAME = 'T1' and COLUMN_NAME = 'H1'",
+        "COLUMN_NAME=H1; CONVERSIONS=3; CONVERSION_MILLIS=0.0\n");
+  }
+
   // helper functions
 
+  private void checkPlan(String model, String sql, final String expected)
+    throws SQLException {
+    checkSql("explain plan for " + sql, model, new Function1<ResultSet, Void>() {
+      public Void apply(ResultSet resultSet) {
+        try {
+          String actual = SQLTest.toString(resultSet);
+          if (!actual.contains(expected)) {
+                System.out.println("Assertion failure:");
+                System.out.println("\tExpected plan containing: '" + expected + "'");
+                System.out.println("\tActual: '" + actual + "'");
+          }
+          assertTrue(actual.contains(expected));
+        } catch (SQLException e) {
+          throw new RuntimeException(e);
+        }
+        return null;
+      }
+    });
+  }
+
   private void checkSql(String model, String sql) throws SQLException {
     checkSql(sql, model, new Function1<ResultSet, Void>() {
       public Void apply(ResultSet resultSet) {
@@ -135,6 +222,30 @@ public class SQLTest {
     }
   }
 
+  // runs a query and reads its rows, then checks the result of another query
+  // on the same connection
+  private void checkSqlAfter(String model, String before, String sql,
+    String expected) throws SQLException {
+    Connection connection = null;
+    Statement statement = null;
+    try {
+      Properties info = new Properties();
+      info.put("model", "target/test-classes/" + model + ".json");
+      connection = DriverManager.getConnection("jdbc:optiq:", info);
+      statement = connection.createStatement();
+      SQLTest.toString(statement.executeQuery(before));
+      String actual = SQLTest.toString(statement.executeQuery(sql));
+      if (!expected.equals(actual)) {
+            System.out.println("Assertion failure:");
+            System.out.println("\tExpected: '" + expected + "'");
+            System.out.println("\tActual: '" + actual + "'");
+      }
+      assertTrue(expected.equals(actual));
+    } finally {
+      close(connection, statement);
+    }
+  }
+
   private static String toString(ResultSet resultSet) throws SQLException {
     StringBuilder buf = new StringBuilder();
     while (resultSet.next()) {
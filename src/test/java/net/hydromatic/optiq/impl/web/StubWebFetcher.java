@@ -0,0 +1,76 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+import java.net.URL;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link WebFetcher} that serves pages from memory, for tests.
+ *
+ * <p>A page answers a request whose <code>If-None-Match</code> header matches
+ * its ETag with a 304; an unknown URL gets a 404. Requests are recorded.</p>
+ */
+public class StubWebFetcher implements WebFetcher {
+    private final Map<String, String> bodies = new HashMap<String, String>();
+    private final Map<String, String> etags = new HashMap<String, String>();
+    private final List<String> requests = new ArrayList<String>();
+
+    /** Adds a page; etag may be null. */
+    public synchronized StubWebFetcher page(String url, String body, String etag) {
+        this.bodies.put(url, body);
+        this.etags.put(url, etag);
+        return this;
+    }
+
+    /** Returns the URLs requested so far, with the status each got. */
+    public synchronized List<String> getRequests() {
+        return new ArrayList<String>(this.requests);
+    }
+
+    public synchronized Response fetch(URL url, Map<String, String> headers)
+        throws IOException {
+        String key = url.toString();
+        String body = this.bodies.get(key);
+        String etag = this.etags.get(key);
+        int status;
+        if (body == null) {
+            status = 404;
+        } else if (etag != null && etag.equals(headers.get("If-None-Match"))) {
+            status = 304;
+        } else {
+            status = 200;
+        }
+        this.requests.add(status + " " + key);
+        return new Response(status, (status == 200) ? bytes(body) : new byte[0],
+            "UTF-8", etag, null);
+    }
+
+    private static byte[] bytes(String s) throws UnsupportedEncodingException {
+        return s.getBytes("UTF-8");
+    }
+}
+
+// End StubWebFetcher.java
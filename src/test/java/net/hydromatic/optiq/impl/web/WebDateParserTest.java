@@ -0,0 +1,80 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.text.SimpleDateFormat;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Unit tests for WebDateParser.
+ */
+public class WebDateParserTest {
+
+    private static String format(Date date) {
+        return new SimpleDateFormat("yyyy-MM-dd", Locale.US).format(date);
+    }
+
+    /**
+     * Test the built-in patterns of DATE fields
+     */
+    @Test
+    public void testDefaultFormats() throws WebReaderException {
+        WebDateParser parser = WebDateParser.of(null, null, WebFieldType.DATE);
+        assertEquals("1787-12-07", format(parser.parse("December 7, 1787")));
+        assertEquals("1850-09-09", format(parser.parse("1850-09-09")));
+        assertEquals("1876-08-01", format(parser.parse("1 August 1876")));
+    }
+
+    /**
+     * Test explicit formats - a list, and a locale for month names
+     */
+    @Test
+    public void testExplicitFormats() throws WebReaderException {
+        WebDateParser parser = WebDateParser.of(
+            Arrays.asList("dd.MM.yyyy", "d. MMMM yyyy"), "de_DE",
+            WebFieldType.DATE);
+        assertEquals("1999-12-31", format(parser.parse("31.12.1999")));
+        assertEquals("1990-10-03", format(parser.parse("3. Oktober 1990")));
+        assertEquals("2000-01-01", format(parser.parse("01.01.2000")));
+    }
+
+    /**
+     * Test that a bad pattern is reported
+     */
+    @Test(expected = WebReaderException.class)
+    public void testBadFormat() throws WebReaderException {
+        WebDateParser.of("qqq", null, WebFieldType.DATE);
+    }
+
+    /**
+     * Test that a format list entry that is not a string is reported
+     */
+    @Test(expected = WebReaderException.class)
+    public void testBadFormatEntry() throws WebReaderException {
+        WebDateParser.of(Arrays.asList("yyyy-MM-dd", 5), null, WebFieldType.DATE);
+    }
+}
+
+// End WebDateParserTest.java
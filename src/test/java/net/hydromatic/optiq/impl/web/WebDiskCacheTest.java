@@ -0,0 +1,130 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import java.net.URL;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for the on-disk page cache, against a local HTTP server.
+ */
+public class WebDiskCacheTest {
+
+    private static final String ETAG = "\"v1\"";
+
+    private LocalWebServer server;
+    private final AtomicInteger fullResponses = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        this.server = new LocalWebServer();
+        this.server.handle("/page.html", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String validator = exchange.getRequestHeaders().getFirst("If-None-Match");
+                if (ETAG.equals(validator)) {
+                    notModified.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                fullResponses.incrementAndGet();
+                exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+                exchange.getResponseHeaders().set("ETag", ETAG);
+                LocalWebServer.send(exchange, 200,
+                    LocalWebServer.PAGE.getBytes("UTF-8"));
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        this.server.close();
+    }
+
+    private WebPageCache newCache() throws IOException, WebReaderException {
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put("directory", this.server.directory().getPath());
+        WebPageCache cache = new WebPageCache();
+        cache.configure(config);
+        return cache;
+    }
+
+    /**
+     * Test revalidation - a second process gets a 304 and the stored body
+     */
+    @Test
+    public void testRevalidate() throws Exception {
+        URL url = this.server.url("/page.html");
+
+        WebPage first = newCache().get(url);
+        assertEquals(1, this.fullResponses.get());
+        assertEquals(ETAG, first.getEtag());
+
+        // a new cache stands in for a restarted JVM
+        WebPage second = newCache().get(url);
+        assertEquals(1, this.fullResponses.get());
+        assertEquals(1, this.notModified.get());
+        assertEquals("R0C1",
+            second.document().select("td").get(1).text());
+    }
+
+    /**
+     * Test revalidation in memory - without a directory, an expired page is
+     * revalidated with its own ETag and a 304 keeps its body
+     */
+    @Test
+    public void testRevalidateInMemory() throws Exception {
+        URL url = this.server.url("/page.html");
+        WebPageCache cache = new WebPageCache();
+
+        WebPage first = cache.get(url);
+        WebPage second = cache.reload(url);
+        assertEquals(1, this.fullResponses.get());
+        assertEquals(1, this.notModified.get());
+        assertTrue(second.sameContent(first));
+        assertSame(second, cache.get(url));
+    }
+
+    /**
+     * Test that pages without validators are not stored
+     */
+    @Test
+    public void testNoValidators() throws Exception {
+        WebDiskCache disk = new WebDiskCache(this.server.directory());
+        disk.store(new WebPage("http://localhost/x", new byte[0], null,
+            0L, null, null, false));
+        assertNull(disk.load("http://localhost/x", false));
+    }
+}
+
+// End WebDiskCacheTest.java
@@ -0,0 +1,185 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.net.URL;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Tests for page fetchers: the HTTP fetcher against a local server, and the
+ * page cache over a stub fetcher.
+ */
+public class WebFetcherTest {
+
+    private static final String PAGE = "<html><body><table>"
+        + "<tr><th>H0</th><th>H1</th></tr>"
+        + "<tr><td>R0C0</td><td>\u00e9t\u00e9</td></tr>"
+        + "</table></body></html>";
+
+    private LocalWebServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        this.server = new LocalWebServer();
+        this.server.handle("/page.html", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = PAGE.getBytes("ISO-8859-1");
+                exchange.getResponseHeaders().set("Content-Type",
+                    "text/html; charset=ISO-8859-1");
+                String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                if (accept != null && accept.contains("gzip")) {
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                    exchange.sendResponseHeaders(200, 0);
+                    OutputStream out = new GZIPOutputStream(exchange.getResponseBody());
+                    out.write(body);
+                    out.close();
+                    return;
+                }
+                LocalWebServer.send(exchange, 200, body);
+            }
+        });
+        this.server.handle("/moved.html", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().set("Location", "/page.html");
+                exchange.sendResponseHeaders(301, -1);
+                exchange.close();
+            }
+        });
+        this.server.handle("/loop.html", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().set("Location", "/loop.html");
+                exchange.sendResponseHeaders(302, -1);
+                exchange.close();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        this.server.close();
+    }
+
+    private URL pageUrl() throws IOException {
+        return this.server.url("/page.html");
+    }
+
+    /**
+     * Test HTTP fetcher - compressed or not, the body and charset come through
+     */
+    @Test
+    public void testHttpFetcher() throws Exception {
+        Map<String, String> none = Collections.emptyMap();
+        for (boolean compress : new boolean[] {true, false}) {
+            Map<String, Object> config = new HashMap<String, Object>();
+            config.put("compress", compress);
+            config.put("perHost", 1);
+            WebFetcher.Response response = HttpWebFetcher.of(config)
+                .fetch(pageUrl(), none);
+            assertEquals(200, response.getStatus());
+            assertEquals("ISO-8859-1", response.getCharset());
+            assertEquals(PAGE, new String(response.getBody(), "ISO-8859-1"));
+        }
+    }
+
+    /**
+     * Test that a body over maxBodySize is an error, not a truncated page
+     */
+    @Test
+    public void testMaxBodySize() throws Exception {
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put("maxBodySize", 10);
+        Map<String, String> none = Collections.emptyMap();
+        try {
+            HttpWebFetcher.of(config).fetch(pageUrl(), none);
+            fail("expected an error");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("exceeds maxBodySize"));
+        }
+    }
+
+    /**
+     * Test that redirects are followed, fetched or streamed, up to a limit
+     */
+    @Test
+    public void testRedirect() throws Exception {
+        Map<String, String> none = Collections.emptyMap();
+        HttpWebFetcher fetcher = new HttpWebFetcher();
+        WebFetcher.Response response = fetcher.fetch(this.server.url("/moved.html"), none);
+        assertEquals(200, response.getStatus());
+        assertEquals(PAGE, new String(response.getBody(), "ISO-8859-1"));
+
+        HttpWebFetcher.Body body = fetcher.open(this.server.url("/moved.html"));
+        assertEquals(200, body.status);
+        body.in.close();
+
+        try {
+            fetcher.fetch(this.server.url("/loop.html"), none);
+            fail("expected an error");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("too many redirects"));
+        }
+    }
+
+    /**
+     * Test page cache over a stub fetcher - revalidation gets a 304
+     */
+    @Test
+    public void testStubFetcher() throws Exception {
+        String url = "http://stub.example.com/page.html";
+        StubWebFetcher stub = new StubWebFetcher().page(url, PAGE, "\"v1\"");
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put("directory", this.server.directory().getPath());
+        for (int i = 0; i < 2; i++) {
+            // a new cache stands in for a restarted JVM
+            WebPageCache cache = new WebPageCache();
+            cache.configure(config);
+            cache.setFetcher(stub);
+            WebPage page = cache.get(new URL(url));
+            assertEquals("R0C0", page.document().select("td").get(0).text());
+        }
+        assertEquals("[200 " + url + ", 304 " + url + "]",
+            stub.getRequests().toString());
+
+        WebPageCache cache = new WebPageCache();
+        cache.setFetcher(stub);
+        try {
+            cache.get(new URL("http://stub.example.com/missing.html"));
+            fail("expected an error");
+        } catch (WebReaderException e) {
+            assertTrue(e.getMessage().contains("HTTP status 404"));
+        }
+    }
+}
+
+// End WebFetcherTest.java
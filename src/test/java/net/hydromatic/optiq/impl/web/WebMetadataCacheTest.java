@@ -0,0 +1,147 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import net.hydromatic.optiq.impl.java.JavaTypeFactory;
+import net.hydromatic.optiq.jdbc.JavaTypeFactoryImpl;
+
+import org.eigenbase.reltype.RelDataType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import java.net.URL;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for planning tables from headings and row counts saved by an earlier
+ * run, against a local HTTP server.
+ */
+public class WebMetadataCacheTest {
+
+    private static final String CHANGED_PAGE = "<html><body><table>"
+        + "<tr><th>H0</th><th>H2</th></tr>"
+        + "<tr><td>R0C0</td><td>R0C2</td></tr>"
+        + "</table></body></html>";
+
+    private LocalWebServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        this.server = new LocalWebServer().page("/page.html", LocalWebServer.PAGE);
+    }
+
+    @After
+    public void tearDown() {
+        this.server.close();
+    }
+
+    /**
+     * Test metadata cache - a restarted table is planned from the saved
+     * headings and row count, without fetching the page
+     */
+    @Test
+    public void testMetadataCache() throws Exception {
+        String spec = this.server.spec("/page.html?metadata");
+        Map<String, Object> tableDef = new HashMap<String, Object>();
+        tableDef.put("url", spec);
+        WebMetadataCache metadata = new WebMetadataCache(this.server.directory());
+
+        WebTable table = new WebTable(tableDef, null);
+        table.setMetadataCache(metadata);
+        assertEquals("R0C1", LocalWebServer.firstBatch(table, 0, 1).get(1, 0));
+        assertEquals(1, this.server.responses());
+
+        // a new table, with no cached page, stands in for a restarted JVM
+        WebPageCache.instance().invalidate(new URL(spec));
+        JavaTypeFactory typeFactory = new JavaTypeFactoryImpl();
+        table = new WebTable(tableDef, null);
+        table.setMetadataCache(metadata);
+        assertEquals("[H0, H1]",
+            table.getRowType(typeFactory).getFieldNames().toString());
+        assertEquals(1.0, table.getStatistic().getRowCount(), 0.0);
+        assertEquals(1, this.server.responses());
+
+        // declared fields need no saved headings
+        List<Map<String, Object>> fields = new ArrayList<Map<String, Object>>();
+        Map<String, Object> field = new HashMap<String, Object>();
+        field.put("th", "H1");
+        field.put("name", "B");
+        field.put("type", "int");
+        fields.add(field);
+        tableDef.put("fields", fields);
+        tableDef.put("declaredOnly", true);
+        table = new WebTable(tableDef, null);
+        RelDataType rowType = table.getRowType(typeFactory);
+        assertEquals("[B]", rowType.getFieldNames().toString());
+        assertEquals(Integer.class,
+            typeFactory.getJavaClass(rowType.getFieldList().get(0).getType()));
+        assertEquals(1, this.server.responses());
+    }
+
+    /**
+     * Test stale saved headings - the first scan fails, and the table is
+     * defined again against the page for the queries after it
+     */
+    @Test
+    public void testChangedHeadings() throws Exception {
+        String spec = this.server.spec("/page.html?changed");
+        Map<String, Object> tableDef = new HashMap<String, Object>();
+        tableDef.put("url", spec);
+        WebMetadataCache metadata = new WebMetadataCache(this.server.directory());
+        WebTable table = new WebTable(tableDef, null);
+        table.setMetadataCache(metadata);
+        assertEquals("R0C1", LocalWebServer.firstBatch(table, 0, 1).get(1, 0));
+
+        this.server.page("/page.html", CHANGED_PAGE);
+        WebPageCache.instance().invalidate(new URL(spec));
+        JavaTypeFactory typeFactory = new JavaTypeFactoryImpl();
+        table = new WebTable(tableDef, null);
+        table.setMetadataCache(metadata);
+        assertEquals("[H0, H1]",
+            table.getRowType(typeFactory).getFieldNames().toString());
+        try {
+            LocalWebServer.firstBatch(table, 0, 1);
+            fail("expected an error");
+        } catch (WebReaderException e) {
+            assertTrue(e.getMessage().contains("bad saved headings"));
+        }
+
+        // planned again, the table has the page's headings, and scans work
+        assertEquals("[H0, H2]",
+            table.getRowType(typeFactory).getFieldNames().toString());
+        assertEquals("R0C2", LocalWebServer.firstBatch(table, 0, 1).get(1, 0));
+
+        // and so does the next run
+        table = new WebTable(tableDef, null);
+        table.setMetadataCache(metadata);
+        assertEquals("[H0, H2]",
+            table.getRowType(typeFactory).getFieldNames().toString());
+    }
+}
+
+// End WebMetadataCacheTest.java
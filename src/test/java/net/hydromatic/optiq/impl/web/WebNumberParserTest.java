@@ -0,0 +1,108 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.util.Locale;
+
+/**
+ * Unit tests for WebNumberParser.
+ */
+public class WebNumberParserTest {
+
+    private final WebNumberParser us = new WebNumberParser(Locale.US, false);
+    private final WebNumberParser lenient = new WebNumberParser(Locale.US, true);
+
+    /**
+     * Test the NumberFormat-compatible defaults
+     */
+    @Test
+    public void testDefaults() {
+        assertEquals(1234, us.parse("1,234", WebFieldType.INT));
+        assertEquals(1, us.parse("1.9", WebFieldType.INT));
+        assertEquals(1234567890123L, us.parse("1,234,567,890,123", WebFieldType.LONG));
+        assertEquals(-1234.56, us.parse("-1,234.56", WebFieldType.DOUBLE));
+        assertEquals(1.5f, us.parse("1.5", WebFieldType.FLOAT));
+        assertEquals((short) 12, us.parse("12", WebFieldType.SHORT));
+        assertEquals(1500.0, us.parse("1.5E3", WebFieldType.DOUBLE));
+        assertEquals(0.001, us.parse("0.001", WebFieldType.DOUBLE));
+
+        // trailing text is ignored
+        assertEquals(45.0, us.parse("45%", WebFieldType.DOUBLE));
+        assertEquals(1234, us.parse("1,234[3]", WebFieldType.INT));
+
+        // a cell that does not start with a number is null
+        assertNull(us.parse("$134.8 B", WebFieldType.DOUBLE));
+        assertNull(us.parse("N/A", WebFieldType.INT));
+        assertNull(us.parse(",", WebFieldType.INT));
+    }
+
+    /**
+     * Test the limits of LONG - all 19 digits are kept, and larger values
+     * saturate as NumberFormat's do
+     */
+    @Test
+    public void testLongLimits() {
+        assertEquals(1234567890123456789L,
+            us.parse("1234567890123456789", WebFieldType.LONG));
+        assertEquals(Long.MAX_VALUE,
+            us.parse("9,223,372,036,854,775,807", WebFieldType.LONG));
+        assertEquals(Long.MIN_VALUE,
+            us.parse("-9,223,372,036,854,775,808", WebFieldType.LONG));
+        assertEquals(Long.MAX_VALUE,
+            us.parse("9223372036854775808", WebFieldType.LONG));
+        assertEquals(Long.MIN_VALUE,
+            us.parse("-92233720368547758070", WebFieldType.LONG));
+        assertEquals(9.223372036854775807E18,
+            us.parse("9223372036854775807", WebFieldType.DOUBLE));
+        assertEquals(0.0, us.parse("0", WebFieldType.DOUBLE));
+        assertEquals(-0.0, us.parse("-0", WebFieldType.DOUBLE));
+    }
+
+    /**
+     * Test lenient parsing - currency, parentheses, unicode minus
+     */
+    @Test
+    public void testLenient() {
+        assertEquals(134.8, lenient.parse("$134.8 B", WebFieldType.DOUBLE));
+        assertEquals(-12, lenient.parse("(12)", WebFieldType.INT));
+        assertEquals(-45.0, lenient.parse("\u221245", WebFieldType.DOUBLE));
+        assertEquals(-5.0, lenient.parse("-$5", WebFieldType.DOUBLE));
+        assertNull(lenient.parse("N/A", WebFieldType.DOUBLE));
+    }
+
+    /**
+     * Test locales
+     */
+    @Test
+    public void testLocale() {
+        assertEquals(1234.5, WebNumberParser.of("de_DE", false)
+            .parse("1.234,5", WebFieldType.DOUBLE));
+        assertEquals(1234.5, WebNumberParser.of("fr-FR", true)
+            .parse("1 234,5", WebFieldType.DOUBLE));
+
+        // no locale means US, like dates, whatever the JVM's default
+        assertEquals(1234.5, WebNumberParser.of(null, false)
+            .parse("1,234.5", WebFieldType.DOUBLE));
+    }
+}
+
+// End WebNumberParserTest.java
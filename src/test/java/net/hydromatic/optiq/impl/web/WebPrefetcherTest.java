@@ -0,0 +1,78 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import java.net.URL;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * Tests for prefetching a schema's pages, against a local HTTP server.
+ */
+public class WebPrefetcherTest {
+
+    private LocalWebServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        this.server = new LocalWebServer().page("/page.html", LocalWebServer.PAGE);
+    }
+
+    @After
+    public void tearDown() {
+        this.server.close();
+    }
+
+    /**
+     * Test prefetch - tables on one URL share a fetch, and a reader joins it
+     */
+    @Test
+    public void testPrefetch() throws Exception {
+        String spec = this.server.spec("/page.html?prefetch");
+        List<Map<String, Object>> tables = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < 2; i++) {
+            Map<String, Object> tableDef = new HashMap<String, Object>();
+            tableDef.put("url", spec);
+            tables.add(tableDef);
+        }
+        List<Future<?>> fetches =
+            new WebPrefetcher(WebPrefetcher.Mode.EAGER, 4, 1).start(tables);
+        assertEquals(1, fetches.size());
+
+        WebPage page = WebPageCache.instance().get(new URL(spec));
+        assertEquals("R0C0", page.document().select("td").get(0).text());
+        for (Future<?> fetch : fetches) {
+            fetch.get();
+        }
+        assertEquals(1, this.server.responses());
+    }
+}
+
+// End WebPrefetcherTest.java
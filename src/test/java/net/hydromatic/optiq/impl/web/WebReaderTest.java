@@ -17,6 +17,10 @@
 */
 package net.hydromatic.optiq.impl.web;
 
+import net.hydromatic.optiq.Statistic;
+
+import net.hydromatic.linq4j.Enumerator;
+
 import org.jsoup.select.Elements;
 
 import org.junit.Assume;
@@ -24,7 +28,25 @@ import org.junit.Test;
 
 import static org.junit.Assert.*;
 
+import java.lang.management.ManagementFactory;
+
+import java.math.BigDecimal;
+
+import java.net.URL;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import javax.management.ObjectName;
 
 /**
  * Unit tests for WebReader.
@@ -169,4 +191,383 @@ public class WebReaderTest {
         assertTrue(row.get(1).text().equals("R2C1"));
     }
 
+    /**
+     * Test streaming WebReader with static files - same rows as a full parse
+     */
+    @Test
+    public void testWebReaderStreaming() throws WebReaderException {
+        WebReader t = new WebReader("file:target/test-classes/tableX2.html");
+        t.setStreaming(true);
+        assertTrue(t.getHeadings().get(4).text().equals("col4"));
+        Elements row = null;
+        int i = 0;
+        for (Elements r : t) {
+            row = r;
+            i++;
+        }
+        assertTrue(i == 3);
+        assertTrue(row.get(5).text().equals("R2C5"));
+
+        t = new WebReader("file:target/test-classes/tableX2.html", "table#smaller");
+        t.setStreaming(true);
+        assertTrue(t.getHeadings().get(1).text().equals("H1"));
+        WebReader.WebReaderIterator rows = t.iterator();
+        assertTrue(rows.next().get(0).text().equals("R0C0"));
+        rows.close();
+
+        // as when parsed, a selector without an index must match one table
+        t = new WebReader("file:target/test-classes/tableX2.html", "table");
+        t.setStreaming(true);
+        try {
+            for (Elements r : t) {
+                assertNotNull(r);
+            }
+            fail("expected an error");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(),
+                e.getMessage().contains("2 HTML element(s) selected"));
+        }
+    }
+
+    /**
+     * Test that a selected table of a page that is not cached is streamed
+     * straight from its source, without caching the page
+     */
+    @Test
+    public void testWebReaderStreamingUncached() throws Exception {
+        String spec = "file:target/test-classes/tableX2.html";
+        WebPageCache.instance().invalidate(new URL(spec));
+        WebReader t = new WebReader(spec, "table#smaller");
+        t.setStreaming(true);
+        WebReader.WebReaderIterator rows = t.iterator();
+        assertEquals("R0C0", rows.next().get(0).text());
+        rows.close();
+        assertEquals("H1", t.getHeadings().get(1).text());
+        assertNull(WebPageCache.instance().cached(new URL(spec), 0L, null));
+    }
+
+    /**
+     * Test that rows of a nested table are not rows of the outer table
+     */
+    @Test
+    public void testWebReaderNested() throws WebReaderException {
+        for (boolean streaming : new boolean[] {false, true}) {
+            WebReader t = new WebReader("file:target/test-classes/tableNested.html",
+                "table", 0);
+            t.setStreaming(streaming);
+            assertEquals(2, t.getHeadings().size());
+            int i = 0;
+            Elements row = null;
+            for (Elements r : t) {
+                row = r;
+                i++;
+            }
+            assertEquals(2, i);
+            assertEquals("R1C1", row.get(1).text());
+        }
+    }
+
+    /**
+     * Test that a reset enumerator returns the same rows again
+     */
+    @Test
+    public void testEnumeratorReset() throws WebReaderException {
+        WebReader t = new WebReader("file:target/test-classes/tableOK.html");
+        WebRowConverter converter = new WebRowConverter(t, null);
+        WebEnumerator e = new WebEnumerator(t, converter, new int[] {1},
+            new WebFilter[0]);
+        assertTrue(e.moveNext());
+        e.reset();
+        List<String> rows = new ArrayList<String>();
+        for (int pass = 0; pass < 2; pass++) {
+            while (e.moveNext()) {
+                rows.add(((Object[]) e.current())[0].toString());
+            }
+            e.reset();
+        }
+        e.close();
+        assertEquals("[R0C1, R1C1, R2C1, R0C1, R1C1, R2C1]", rows.toString());
+    }
+
+    /**
+     * Test a table spread over pages, by page number and by next link
+     */
+    @Test
+    public void testWebReaderPagination() throws WebReaderException {
+        Map<String, Object> numbered = new HashMap<String, Object>();
+        numbered.put("from", 2);
+        numbered.put("to", 3);
+        Map<String, Object> linked = new HashMap<String, Object>();
+        linked.put("next", "a.next");
+        for (boolean streaming : new boolean[] {false, true}) {
+            WebReader t = new WebReader("file:target/test-classes/tablePage{page}.html");
+            t.setStreaming(streaming);
+            t.setPagination(WebPagination.of(
+                "file:target/test-classes/tablePage{page}.html", numbered));
+            assertEquals("[P2R0C0, P2R1C0, P3R0C0, P3R1C0]", firstCells(t));
+            assertEquals("H1", t.getHeadings().get(1).text());
+
+            t = new WebReader("file:target/test-classes/tablePage1.html");
+            t.setStreaming(streaming);
+            t.setPagination(WebPagination.of(null, linked));
+            assertEquals("[P1R0C0, P1R1C0, P2R0C0, P2R1C0, P3R0C0, P3R1C0]",
+                firstCells(t));
+        }
+    }
+
+    private static String firstCells(WebReader t) {
+        List<String> cells = new ArrayList<String>();
+        for (Elements row : t) {
+            cells.add(row.get(0).text());
+        }
+        return cells.toString();
+    }
+
+    /**
+     * Test batch scan - same rows as a row scan, filters narrow the selection
+     */
+    @Test
+    public void testBatches() throws WebReaderException {
+        WebReader t = new WebReader("file:target/test-classes/tableOK.html");
+        WebRowConverter converter = new WebRowConverter(t, null);
+        WebFilter[] filters = {
+            new WebFilter(0, WebFilter.Op.NOT_EQUALS, new Object[] {"R1C0"})};
+        WebBatchReader batches = new WebBatchReader(t, converter, new int[] {2, 0},
+            filters, 2);
+        assertTrue(batches.moveNext());
+        assertEquals(1, batches.current().size());
+        assertEquals("R0C2", batches.current().get(0, 0));
+        assertTrue(batches.moveNext());
+        assertEquals(1, batches.current().count(1));
+        assertEquals("R2C0", batches.current().get(1, 0));
+        assertFalse(batches.moveNext());
+        batches.close();
+    }
+
+    /**
+     * Test filters on large integers - LONG values beyond 2^53 compare
+     * exactly, not as doubles
+     */
+    @Test
+    public void testFilterLargeLong() {
+        WebFilter filter = WebFilter.decode(WebFilter.encode(
+            Collections.singletonList(new WebFilter(0, WebFilter.Op.EQUALS,
+                new Object[] {new BigDecimal("9007199254740993")}))))[0];
+        assertTrue(filter.accept(9007199254740993L));
+        assertFalse(filter.accept(9007199254740992L));
+        assertTrue(filter.accept((Object) Long.valueOf(9007199254740993L)));
+        assertFalse(filter.accept((Object) Long.valueOf(9007199254740992L)));
+
+        WebFilter in = new WebFilter(0, WebFilter.Op.IN, new Object[] {
+            new BigDecimal("9223372036854775807"),
+            new BigDecimal("2.5")});
+        assertTrue(in.accept(Long.MAX_VALUE));
+        assertFalse(in.accept(Long.MAX_VALUE - 1));
+        assertFalse(in.accept(2L));
+
+        WebFilter less = new WebFilter(0, WebFilter.Op.LESS_THAN,
+            new Object[] {new BigDecimal("2.5")});
+        assertTrue(less.accept(2L));
+        assertFalse(less.accept(3L));
+    }
+
+    /**
+     * Test page cache - readers of one URL share a single fetch
+     */
+    @Test
+    public void testPageCacheShared() throws Exception {
+        URL url = new URL("file:target/test-classes/tableX2.html");
+        WebPage page = WebPageCache.instance().get(url);
+        assertTrue(page == WebPageCache.instance().get(url));
+        assertTrue(page.document() == WebPageCache.instance().get(url).document());
+
+        // refresh drops the cached page
+        new WebReader("file:target/test-classes/tableX2.html").refresh();
+        assertFalse(page == WebPageCache.instance().get(url));
+    }
+
+    /**
+     * Test table statistics - no fetch for planning, counted rows once the
+     * page is read, declared keys, and no keys guessed from a small table
+     */
+    @Test
+    public void testTableStatistic() throws Exception {
+        String spec = "file:target/test-classes/tableOK.html";
+        Map<String, Object> tableDef = new HashMap<String, Object>();
+        tableDef.put("url", spec);
+        tableDef.put("keys", Arrays.asList(Arrays.asList("H1", "H2")));
+        WebPageCache.instance().invalidate(new URL(spec));
+        WebTable table = new WebTable(tableDef, null);
+        Statistic statistic = table.getStatistic();
+        assertNull(statistic.getRowCount());
+        assertNull(WebPageCache.instance().cached(new URL(spec), 0L, null));
+
+        WebPageCache.instance().get(new URL(spec));
+        statistic = table.getStatistic();
+        assertEquals(3d, statistic.getRowCount().doubleValue(), 0d);
+        BitSet columns = new BitSet();
+        columns.set(1);
+        columns.set(2);
+        assertTrue(statistic.isKey(columns));
+        columns = new BitSet();
+        columns.set(0);
+        assertFalse(statistic.isKey(columns));
+
+        // three unique values do not make a key
+        tableDef.put("materialize", Boolean.TRUE);
+        table = new WebTable(tableDef, null);
+        table.batches(new int[] {0}, new String[0]).close();
+        statistic = table.getStatistic();
+        assertEquals(3d, statistic.getRowCount().doubleValue(), 0d);
+        assertFalse(statistic.isKey(columns));
+
+        // a key on a declared column is known before the page is read
+        Map<String, Object> fieldDef = new HashMap<String, Object>();
+        fieldDef.put("th", "H0");
+        fieldDef.put("name", "ID");
+        tableDef = new HashMap<String, Object>();
+        tableDef.put("url", spec);
+        tableDef.put("fields", new ArrayList<Object>(
+            Collections.singletonList(fieldDef)));
+        tableDef.put("keys", Arrays.asList(Arrays.asList("ID"),
+            Arrays.asList("H1")));
+        WebPageCache.instance().invalidate(new URL(spec));
+        statistic = new WebTable(tableDef, null).getStatistic();
+        assertTrue(statistic.isKey(columns));
+        assertNull(WebPageCache.instance().cached(new URL(spec), 0L, null));
+    }
+
+    /**
+     * Test table statistics counters, and their MBean
+     */
+    @Test
+    public void testTableStats() throws Exception {
+        Map<String, Object> tableDef = new HashMap<String, Object>();
+        tableDef.put("name", "STATS");
+        tableDef.put("url", "file:target/test-classes/tableOK.html");
+        WebTable table = new WebTable(tableDef, null);
+        Enumerator<Object> rows =
+            table.project(new int[] {0, 1}).enumerator();
+        while (rows.moveNext()) {
+            assertNotNull(rows.current());
+        }
+        rows.close();
+
+        WebStats stats = table.getStats();
+        assertEquals(3L, stats.getRows());
+        assertTrue(stats.getCacheHits() + stats.getCacheMisses() > 0);
+        assertEquals(1L, stats.getLocates());
+        assertEquals("H0", stats.getColumnNames()[0]);
+        assertEquals(3L, stats.getColumnConversions()[0]);
+        assertEquals(0L, stats.getColumnConversionFailures()[0]);
+        // cells are timed only when profiling
+        assertEquals(0d, stats.getColumnConversionMillis()[0], 0d);
+
+        stats.register("TEST");
+        ObjectName name = new ObjectName(
+            "net.hydromatic.optiq.impl.web:type=WebStats,schema=\"TEST\",table=\"STATS\"");
+        assertEquals(3L, ManagementFactory.getPlatformMBeanServer()
+            .getAttribute(name, "Rows"));
+    }
+
+    /**
+     * Test profiling - a scan logs its plan node annotated with timings
+     */
+    @Test
+    public void testProfile() throws Exception {
+        Map<String, Object> tableDef = new HashMap<String, Object>();
+        tableDef.put("name", "PROFILED");
+        tableDef.put("url", "file:target/test-classes/tableOK.html");
+        WebTable table = new WebTable(tableDef, null);
+        table.getStats().register("TEST");
+        table.setProfiling(true);
+
+        final List<String> messages = new ArrayList<String>();
+        Handler handler = new Handler() {
+            public void publish(LogRecord record) {
+                messages.add(record.getMessage());
+            }
+
+            public void flush() {
+            }
+
+            public void close() {
+            }
+        };
+        Logger logger = Logger.getLogger(WebProfile.class.getName());
+        logger.addHandler(handler);
+        try {
+            String[] filters = WebFilter.encode(Collections.singletonList(
+                new WebFilter(0, WebFilter.Op.EQUALS, new Object[] {"R1C0"})));
+            Enumerator<Object> rows =
+                table.project(new int[] {1}, filters).enumerator();
+            assertTrue(rows.moveNext());
+            assertEquals("R1C1", rows.current());
+            assertFalse(rows.moveNext());
+            rows.close();
+        } finally {
+            logger.removeHandler(handler);
+        }
+
+        assertEquals(1, messages.size());
+        String profile = messages.get(0);
+        assertTrue(profile, profile.startsWith("WebTableScan(table=[TEST, PROFILED],"
+            + " fields=[1], filters=[$0 = 'R1C0']): 1 row in "));
+        assertTrue(profile, profile.contains("\n  field H0: 3 cells, extract "));
+        assertTrue(profile, profile.contains("\n  field H1: 1 cell, extract "));
+    }
+
+    /**
+     * Test independent cursors - interleaved and concurrent scans of one reader
+     */
+    @Test
+    public void testWebReaderConcurrent() throws Exception {
+        final WebReader t = new WebReader("file:target/test-classes/tableOK.html");
+        Iterator<Elements> i1 = t.iterator();
+        Iterator<Elements> i2 = t.iterator();
+        assertEquals("R0C0", i1.next().get(0).text());
+        assertEquals("R0C0", i2.next().get(0).text());
+        assertEquals("R1C0", i1.next().get(0).text());
+
+        final int[] counts = new int[4];
+        Thread[] threads = new Thread[counts.length];
+        for (int k = 0; k < threads.length; k++) {
+            final int n = k;
+            threads[k] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 50; j++) {
+                        for (Elements row : t) {
+                            counts[n]++;
+                        }
+                    }
+                }
+            };
+            threads[k].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int count : counts) {
+            assertEquals(150, count);
+        }
+    }
+
+    /**
+     * Test best-table hints, with and without streaming
+     */
+    @Test
+    public void testWebReaderHints() throws WebReaderException {
+        for (boolean streaming : new boolean[] {false, true}) {
+            WebReader t = new WebReader("file:target/test-classes/tableX2.html");
+            t.setStreaming(streaming);
+            t.setHints(new WebTableHints(0, "H1"));
+            assertEquals("H1", t.getHeadings().get(1).text());
+
+            t = new WebReader("file:target/test-classes/tableX2.html");
+            t.setStreaming(streaming);
+            t.setHints(new WebTableHints(3, null));
+            assertEquals("col5", t.getHeadings().get(5).text());
+        }
+    }
+
 }
@@ -0,0 +1,152 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import java.net.URL;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for refreshing expired pages in the background, against a local HTTP
+ * server.
+ */
+public class WebRefresherTest {
+
+    private LocalWebServer server;
+    private final AtomicInteger version = new AtomicInteger();
+    private final AtomicInteger tableVersion = new AtomicInteger();
+    // holds up every fetch of the table page after the first
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws IOException {
+        this.server = new LocalWebServer();
+        this.server.handle("/version.html", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                LocalWebServer.send(exchange, 200,
+                    ("<p>v" + version.incrementAndGet() + "</p>").getBytes("UTF-8"));
+            }
+        });
+        this.server.handle("/table.html", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                int n = tableVersion.incrementAndGet();
+                if (n > 1) {
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                LocalWebServer.send(exchange, 200,
+                    ("<table><tr><th>V</th></tr><tr><td>v" + n
+                        + "</td></tr></table>").getBytes("UTF-8"));
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        this.release.countDown();
+        this.server.close();
+    }
+
+    /**
+     * Test stale-while-revalidate - an expired page is served at once and
+     * replaced by a background fetch
+     */
+    @Test
+    public void testStaleWhileRevalidate() throws Exception {
+        URL url = this.server.url("/version.html");
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put("ttl", 0);
+        WebPageCache cache = new WebPageCache();
+        cache.configure(config);
+
+        assertEquals("v1", cache.get(url).document().text());
+        Thread.sleep(5);
+        assertEquals("v1", cache.get(url, Long.MAX_VALUE).document().text());
+        String text = "v1";
+        for (int i = 0; i < 100 && text.equals("v1"); i++) {
+            text = cache.get(url, Long.MAX_VALUE).document().text();
+            Thread.sleep(20);
+        }
+        assertTrue(text.startsWith("v"));
+        assertFalse(text.equals("v1"));
+    }
+
+    /**
+     * Test refreshInterval - a materialized table is fetched again in the
+     * background, and scans read the old columns until the new ones are built
+     */
+    @Test
+    public void testRefreshInterval() throws Exception {
+        Map<String, Object> tableDef = new HashMap<String, Object>();
+        tableDef.put("url", this.server.spec("/table.html"));
+        tableDef.put("materialize", Boolean.TRUE);
+        tableDef.put("refreshInterval", 0);
+        try {
+            new WebTable(tableDef, null);
+            fail("expected an error");
+        } catch (WebReaderException e) {
+            assertEquals("bad refreshInterval: 0", e.getMessage());
+        }
+
+        tableDef.put("refreshInterval", 20);
+        WebTable table = new WebTable(tableDef, null);
+        assertEquals("v1", cell(table));
+
+        // a refresh is waiting for the server; scans do not
+        for (int i = 0; i < 100 && this.tableVersion.get() < 2; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(2, this.tableVersion.get());
+        assertEquals("v1", cell(table));
+        assertEquals(2, this.tableVersion.get());
+
+        this.release.countDown();
+        String text = "v1";
+        for (int i = 0; i < 100 && text.equals("v1"); i++) {
+            Thread.sleep(20);
+            text = cell(table);
+        }
+        assertTrue(text.startsWith("v"));
+        assertFalse(text.equals("v1"));
+    }
+
+    // the first cell of a table
+    private static String cell(WebTable table) throws Exception {
+        return (String) LocalWebServer.firstBatch(table, 0).get(0, 0);
+    }
+}
+
+// End WebRefresherTest.java
@@ -0,0 +1,126 @@
+/*
+// Licensed to Henry Olson under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Henry Olson licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.web;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.net.URL;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests for saving a materialized table to a file and restoring it after a
+ * restart, against a local HTTP server.
+ */
+public class WebSnapshotTest {
+
+    private LocalWebServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        this.server = new LocalWebServer().page("/page.html", LocalWebServer.PAGE);
+    }
+
+    @After
+    public void tearDown() {
+        this.server.close();
+    }
+
+    /**
+     * Test snapshot - a restarted table answers from the saved columns while
+     * the server is down
+     */
+    @Test
+    public void testSnapshot() throws Exception {
+        String spec = this.server.spec("/page.html?snapshot");
+        File file = new File(this.server.directory(), "page.snapshot");
+        Map<String, Object> tableDef = new HashMap<String, Object>();
+        tableDef.put("url", spec);
+        tableDef.put("snapshot", file.getPath());
+
+        WebBatch batch =
+            LocalWebServer.firstBatch(new WebTable(tableDef, null), 0, 1);
+        assertEquals("R0C1", batch.get(1, 0));
+        for (int i = 0; i < 100 && !file.isFile(); i++) {
+            Thread.sleep(20);
+        }
+        assertTrue(file.isFile());
+
+        // a new table, with no server and no cached page, stands in for a
+        // restarted JVM
+        this.server.stop();
+        WebPageCache.instance().invalidate(new URL(spec));
+        batch = LocalWebServer.firstBatch(new WebTable(tableDef, null), 0, 1);
+        assertEquals(1, batch.size());
+        assertEquals("R0C0", batch.get(0, 0));
+        assertEquals("R0C1", batch.get(1, 0));
+        assertEquals(1, this.server.responses());
+
+        // the file is not held open
+        assertTrue(file.delete());
+    }
+
+    /**
+     * Test damaged snapshots - lengths that run past the end of the file are
+     * ignored, not allocated
+     */
+    @Test
+    public void testDamagedSnapshot() throws Exception {
+        assertTrue(this.server.directory().mkdirs());
+        File file = new File(this.server.directory(), "damaged.snapshot");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeInt(0x57454253);
+            out.writeInt(1);
+            out.writeInt(Integer.MAX_VALUE - 8);
+            out.write(new byte[16]);
+        } finally {
+            out.close();
+        }
+        assertNull(WebSnapshot.read(file, "http://localhost/"));
+
+        out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeInt(0x57454253);
+            out.writeInt(1);
+            out.writeInt(1);
+            out.write('x');
+            out.writeLong(0L);
+            out.writeInt(0);
+            out.writeInt(Integer.MAX_VALUE / 4);
+            out.writeInt(1);
+            out.writeInt(4);
+            out.write("LONG".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        assertNull(WebSnapshot.read(file, "x"));
+    }
+}
+
+// End WebSnapshotTest.java